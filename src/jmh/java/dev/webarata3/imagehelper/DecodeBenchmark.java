@@ -0,0 +1,61 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 画像全体のデコードとヘッダーだけの読み込み
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({ "jpg", "png", "gif" })
+    public String format;
+
+    @Param({ "640x480", "1920x1080", "4000x3000" })
+    public String size;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        var wh = SyntheticImages.parseSize(size);
+        file = SyntheticImages.write(SyntheticImages.create(wh[0], wh[1]), format);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public BufferedImage imageIoRead() throws IOException {
+        return ImageIO.read(file.toFile());
+    }
+
+    @Benchmark
+    public Dimension readHeaderOnly() throws IOException {
+        return Thumbnails.readSize(file);
+    }
+}
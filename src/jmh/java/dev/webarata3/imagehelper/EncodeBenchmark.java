@@ -0,0 +1,82 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 画面キャプチャーの PNG 保存
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({ "800x600", "1920x1080", "3840x2160" })
+    public String size;
+
+    // CaptureEncoder の圧縮レベル
+    @Param({ "1", "4", "9" })
+    public int level;
+
+    private BufferedImage capture;
+    private Path output;
+    private Path outputFolder;
+    private CaptureEncoder encoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        var wh = SyntheticImages.parseSize(size);
+        // Robot.createScreenCapture と同じ TYPE_INT_RGB
+        capture = SyntheticImages.create(wh[0], wh[1]);
+        output = Files.createTempFile("imagehelper-bench", ".png");
+        outputFolder = Files.createTempDirectory("imagehelper-bench-capture");
+        encoder = new CaptureEncoder(level, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(outputFolder);
+    }
+
+    // 以前の CaptureOverlay と同じ書き出し方
+    @Benchmark
+    public boolean pngToFile() throws IOException {
+        return ImageIO.write(capture, "png", output.toFile());
+    }
+
+    // 一時ファイルへの書き出しと名前の変更を含む、キャプチャー保存の全体
+    @Benchmark
+    public Path captureEncoderSave() throws IOException {
+        var saved = encoder.save(capture, outputFolder, "screenshot").join();
+        Files.delete(saved);
+        return saved;
+    }
+
+    // ファイル書き込みを除いたエンコードだけ
+    @Benchmark
+    public int pngToMemory() throws IOException {
+        var out = new ByteArrayOutputStream(capture.getWidth() * capture.getHeight());
+        ImageIO.write(capture, "png", out);
+        return out.size();
+    }
+}
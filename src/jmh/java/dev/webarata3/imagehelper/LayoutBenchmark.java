@@ -0,0 +1,109 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JViewport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// サムネイルを並べるレイアウトと描画
+// 以前の JLabel + WrapLayout と、ThumbnailGrid の比較
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    @Param({ "1000", "10000", "50000" })
+    public int cells;
+
+    private ScrollablePanel panel;
+    private WrapLayout wrapLayout;
+    private ThumbnailGrid grid;
+    private BufferedImage canvas;
+
+    @Setup
+    public void setUp() {
+        var thumbnail = new BufferedImage(Thumbnails.THUMBNAIL_SIZE, Thumbnails.THUMBNAIL_SIZE * 3 / 4,
+                BufferedImage.TYPE_INT_RGB);
+
+        wrapLayout = new WrapLayout(FlowLayout.LEFT, 10, 10);
+        panel = new ScrollablePanel(wrapLayout);
+        var icon = new ImageIcon(thumbnail);
+        for (var i = 0; i < cells; i++) {
+            panel.add(new JLabel(icon));
+        }
+        panel.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+
+        grid = new ThumbnailGrid(Thumbnails.THUMBNAIL_SIZE, 10, path -> thumbnail);
+        var viewport = new JViewport();
+        viewport.setView(grid);
+        viewport.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+        List<Path> paths = new ArrayList<>();
+        for (var i = 0; i < cells; i++) {
+            paths.add(Path.of("image" + i + ".png"));
+        }
+        grid.addPaths(paths);
+        viewport.doLayout();
+        // 中ほどまでスクロールした状態にする
+        viewport.setViewPosition(new Point(0, grid.getPreferredSize().height / 2));
+
+        canvas = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public Dimension wrapLayoutPreferredSize() {
+        return wrapLayout.preferredLayoutSize(panel);
+    }
+
+    @Benchmark
+    public void wrapLayoutDoLayout() {
+        wrapLayout.layoutContainer(panel);
+    }
+
+    @Benchmark
+    public Dimension gridPreferredSize() {
+        return grid.getPreferredSize();
+    }
+
+    @Benchmark
+    public List<Path> gridVisiblePaths() {
+        return grid.getVisiblePaths();
+    }
+
+    // スクロール 1 回分の描画（表示範囲だけ）
+    @Benchmark
+    public BufferedImage gridPaintViewport() {
+        var visible = grid.getVisibleRect();
+        var g = canvas.createGraphics();
+        g.translate(-visible.x, -visible.y);
+        g.setClip(new Rectangle(visible));
+        grid.paint(g);
+        g.dispose();
+        return canvas;
+    }
+}
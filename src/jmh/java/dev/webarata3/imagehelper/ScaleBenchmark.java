@@ -0,0 +1,78 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.ImageIcon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// デコード済みの画像をサムネイルの大きさに縮小する方法ごとの比較
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleBenchmark {
+    @Param({ "640x480", "1920x1080", "4000x3000" })
+    public String size;
+
+    @Param({ "100", "512" })
+    public int target;
+
+    private BufferedImage source;
+    private int targetWidth;
+    private int targetHeight;
+
+    @Setup
+    public void setUp() {
+        var wh = SyntheticImages.parseSize(size);
+        source = SyntheticImages.create(wh[0], wh[1]);
+        var scale = Math.min((double) target / wh[0], (double) target / wh[1]);
+        targetWidth = (int) Math.round(wh[0] * scale);
+        targetHeight = (int) Math.round(wh[1] * scale);
+    }
+
+    // 以前のサムネイル作成方法。ImageIcon で縮小が終わるのを待つ
+    @Benchmark
+    public Image scaledInstanceSmooth() {
+        return new ImageIcon(source.getScaledInstance(targetWidth, targetHeight, Image.SCALE_SMOOTH)).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage singleStepBilinear() {
+        return drawScaled(RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @Benchmark
+    public BufferedImage singleStepBicubic() {
+        return drawScaled(RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    }
+
+    @Benchmark
+    public BufferedImage multiStepBilinear() {
+        return Thumbnails.scaleToFit(source, target, target);
+    }
+
+    private BufferedImage drawScaled(Object interpolation) {
+        var scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        var g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        g.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        g.dispose();
+        return scaled;
+    }
+}
@@ -0,0 +1,71 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+// ベンチマーク用の画像を生成する（オフラインで実行できるように外部の画像は使わない）
+final class SyntheticImages {
+    private SyntheticImages() {
+    }
+
+    // "1920x1080" 形式の文字列を {幅, 高さ} にする
+    static int[] parseSize(String size) {
+        var parts = size.split("x");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    // 写真とスクリーンショットの中間のような、グラデーション・図形・文字を含む画像
+    static BufferedImage create(int width, int height) {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), width, height, new Color(220, 180, 90)));
+        g.fillRect(0, 0, width, height);
+
+        // 毎回同じ画像になるように乱数の種は固定する
+        var random = new Random(42);
+        for (var i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 160));
+            var w = random.nextInt(Math.max(1, width / 5)) + 1;
+            var h = random.nextInt(Math.max(1, height / 5)) + 1;
+            if (i % 2 == 0) {
+                g.fillRect(random.nextInt(width), random.nextInt(height), w, h);
+            } else {
+                g.fillOval(random.nextInt(width), random.nextInt(height), w, h);
+            }
+        }
+        g.setColor(Color.WHITE);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(12, height / 40)));
+        for (var y = height / 20; y < height; y += height / 10) {
+            g.drawString("ImageHelper benchmark " + width + "x" + height, width / 20, y);
+        }
+        g.dispose();
+        return image;
+    }
+
+    // 指定形式で一時ファイルに書き出す
+    static Path write(BufferedImage image, String format) throws IOException {
+        var file = Files.createTempFile("imagehelper-bench", "." + format);
+        var toWrite = image;
+        if (format.equals("gif")) {
+            // GIF はインデックスカラーにしてから書き出す
+            toWrite = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_INDEXED);
+            var g = toWrite.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        if (!ImageIO.write(toWrite, format, file.toFile())) {
+            throw new IOException("書き出せない形式です: " + format);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,88 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ファイルからサムネイルができるまでの全体
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailBenchmark {
+    // 既定の表示サイズで使うレベル
+    private static final int LEVEL = Thumbnails.levelFor(Thumbnails.THUMBNAIL_SIZE);
+
+    @Param({ "jpg", "png", "gif" })
+    public String format;
+
+    @Param({ "1920x1080", "4000x3000" })
+    public String size;
+
+    private Path file;
+    private Path cacheDir;
+    private ThumbnailDiskCache diskCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        var wh = SyntheticImages.parseSize(size);
+        file = SyntheticImages.write(SyntheticImages.create(wh[0], wh[1]), format);
+
+        cacheDir = Files.createTempDirectory("imagehelper-bench-cache");
+        diskCache = new ThumbnailDiskCache(cacheDir, Long.MAX_VALUE);
+        diskCache.put(file, LEVEL, Thumbnails.decode(file, LEVEL, LEVEL));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        try (var files = Files.walk(cacheDir)) {
+            for (var path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // 以前の方法: 全体をデコードしてから getScaledInstance で縮小する
+    @Benchmark
+    public Image fullDecodeAndScaledInstance() throws IOException {
+        var original = ImageIO.read(file.toFile());
+        var scale = Math.min((double) Thumbnails.THUMBNAIL_SIZE / original.getWidth(),
+                (double) Thumbnails.THUMBNAIL_SIZE / original.getHeight());
+        var scaled = original.getScaledInstance((int) (original.getWidth() * scale),
+                (int) (original.getHeight() * scale), Image.SCALE_SMOOTH);
+        return new ImageIcon(scaled).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage subsampledDecode() throws IOException {
+        return Thumbnails.decode(file, Thumbnails.THUMBNAIL_SIZE, Thumbnails.THUMBNAIL_SIZE);
+    }
+
+    @Benchmark
+    public BufferedImage diskCacheHit() {
+        return diskCache.get(file, LEVEL);
+    }
+}
@@ -1,10 +1,23 @@
 package dev.webarata3.imagehelper;
 
+import java.util.Arrays;
+
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
 public class App {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("index")) {
+            // サーバーなど画面の無い環境でも動くようにする
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchIndexer.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("cds-training")) {
+            // ビルド時に AppCDS アーカイブを作るための実行
+            System.setProperty("java.awt.headless", "true");
+            System.exit(CdsTraining.run());
+        }
+
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
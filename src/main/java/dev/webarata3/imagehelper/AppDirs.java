@@ -0,0 +1,28 @@
+package dev.webarata3.imagehelper;
+
+import java.nio.file.Path;
+
+// アプリケーションが使うディレクトリ
+class AppDirs {
+    private static final String APP_NAME = "ImageHelper";
+
+    private AppDirs() {
+    }
+
+    // OS ごとのユーザーキャッシュディレクトリ
+    static Path cacheDir() {
+        var os = System.getProperty("os.name", "").toLowerCase();
+        var home = System.getProperty("user.home");
+        if (os.startsWith("windows")) {
+            var localAppData = System.getenv("LOCALAPPDATA");
+            var base = localAppData != null ? Path.of(localAppData) : Path.of(home, "AppData", "Local");
+            return base.resolve(APP_NAME).resolve("cache");
+        }
+        if (os.startsWith("mac")) {
+            return Path.of(home, "Library", "Caches", APP_NAME);
+        }
+        var xdgCache = System.getenv("XDG_CACHE_HOME");
+        var base = xdgCache != null && !xdgCache.isEmpty() ? Path.of(xdgCache) : Path.of(home, ".cache");
+        return base.resolve(APP_NAME.toLowerCase());
+    }
+}
@@ -0,0 +1,251 @@
+package dev.webarata3.imagehelper;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.prefs.Preferences;
+
+// GUI を使わずにフォルダー内のサムネイルを全てのレベルについてまとめて作成し、GUI と同じディスクキャッシュに保存する
+// 使い方: index <dir> [--threads N] [--recursive]
+class BatchIndexer {
+    private static final Path END_OF_QUEUE = Path.of("");
+
+    private final Path root;
+    private final int threads;
+    private final boolean recursive;
+    private final ThumbnailDiskCache diskCache;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong alreadyCached = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    // 読めずに飛ばしたフォルダーなど（列挙するスレッドからのみ触る）
+    private int unreadable = 0;
+    private final List<long[]> decodeTimes = new ArrayList<>();
+
+    BatchIndexer(Path root, int threads, boolean recursive, ThumbnailDiskCache diskCache) {
+        this.root = root;
+        this.threads = threads;
+        this.recursive = recursive;
+        this.diskCache = diskCache;
+    }
+
+    static int run(String[] args) {
+        Path root = null;
+        var threads = Runtime.getRuntime().availableProcessors();
+        var recursive = false;
+        for (var i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> {
+                    if (i + 1 >= args.length) return usage();
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage();
+                    }
+                    if (threads < 1) return usage();
+                }
+                case "--recursive" -> recursive = true;
+                default -> {
+                    if (root != null || args[i].startsWith("--")) return usage();
+                    root = Path.of(args[i]);
+                }
+            }
+        }
+        if (root == null) return usage();
+        if (!Files.isDirectory(root)) {
+            System.err.println("フォルダーが見つかりません: " + root);
+            return 1;
+        }
+
+        var prefs = Preferences.userNodeForPackage(BatchIndexer.class);
+        var diskCache = ThumbnailDiskCache
+                .openDefault(prefs.getLong(ImageHelper.PREF_KEY_DISK_CACHE_MB, 256) * 1024 * 1024);
+        try {
+            new BatchIndexer(root, threads, recursive, diskCache).index();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("処理中にエラーが発生しました: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private static int usage() {
+        System.err.println("使い方: index <dir> [--threads N] [--recursive]");
+        return 2;
+    }
+
+    void index() throws IOException, InterruptedException {
+        var start = System.nanoTime();
+
+        // キューの長さを制限して、列挙が先行しすぎてもメモリを使いすぎないようにする
+        var queue = new ArrayBlockingQueue<Path>(threads * 4);
+        var workers = new ArrayList<Thread>();
+        for (var i = 0; i < threads; i++) {
+            var worker = new Thread(() -> work(queue), "indexer-" + (i + 1));
+            workers.add(worker);
+            worker.start();
+        }
+
+        try {
+            enqueueImages(queue);
+        } finally {
+            for (var i = 0; i < threads; i++) {
+                queue.put(END_OF_QUEUE);
+            }
+            for (var worker : workers) {
+                worker.join();
+            }
+        }
+
+        printStats(System.nanoTime() - start);
+    }
+
+    // root 以下の画像をキューに入れる。読めないサブフォルダーは知らせて飛ばし、残りは続けて処理する
+    private void enqueueImages(BlockingQueue<Path> queue) throws IOException, InterruptedException {
+        var maxDepth = recursive ? Integer.MAX_VALUE : 1;
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // 削除したファイルを移しておくゴミ箱の中は作らない
+                if (!dir.equals(root) && dir.getFileName().toString().equals(FileOperations.TRASH_DIR_NAME)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!ThumbnailLoader.isImageFile(file)) return FileVisitResult.CONTINUE;
+                // リンク先が画像ファイルなら作る
+                if (!attrs.isRegularFile() && !(attrs.isSymbolicLink() && Files.isRegularFile(file))) {
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    queue.put(file);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (file.equals(root)) throw e;
+                skip(file, e);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    // 一覧の途中で読めなくなった
+                    if (dir.equals(root)) throw e;
+                    skip(dir, e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    private void skip(Path path, IOException e) {
+        unreadable++;
+        System.err.println("読み込めないため飛ばしました: " + path + " (" + e.getMessage() + ")");
+    }
+
+    private void work(BlockingQueue<Path> queue) {
+        var times = new long[64];
+        var count = 0;
+        try {
+            while (true) {
+                var path = queue.take();
+                if (path == END_OF_QUEUE) break;
+
+                var missing = new ArrayList<Integer>();
+                for (var level : Thumbnails.LEVELS) {
+                    if (!diskCache.contains(path, level)) {
+                        missing.add(level);
+                    }
+                }
+                if (missing.isEmpty()) {
+                    alreadyCached.incrementAndGet();
+                    continue;
+                }
+                var decodeStart = System.nanoTime();
+                try {
+                    var size = Files.size(path);
+                    // 一番大きいレベルの分だけデコードし、小さいレベルはそれを縮小して作る
+                    var largest = missing.get(missing.size() - 1);
+                    var thumbnail = Thumbnails.decode(path, largest, largest);
+                    if (thumbnail == null) {
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    var elapsed = System.nanoTime() - decodeStart;
+                    Thumbnails.buildLevels(thumbnail, largest).forEach((level, image) -> {
+                        if (missing.contains(level)) {
+                            diskCache.put(path, level, image);
+                        }
+                    });
+
+                    if (count == times.length) {
+                        times = Arrays.copyOf(times, count * 2);
+                    }
+                    times[count++] = elapsed;
+                    bytesRead.addAndGet(size);
+                    processed.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    // 壊れた画像ではデコーダーが実行時例外を投げることもある
+                    failed.incrementAndGet();
+                    System.err.println("読み込めませんでした: " + path + " (" + e.getMessage() + ")");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (decodeTimes) {
+            decodeTimes.add(Arrays.copyOf(times, count));
+        }
+    }
+
+    private void printStats(long elapsedNanos) {
+        var all = decodeTimes.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        var seconds = elapsedNanos / 1e9;
+
+        System.out.printf("対象フォルダー: %s%n", root.toAbsolutePath());
+        System.out.printf("作成: %d 件, キャッシュ済み: %d 件, 失敗: %d 件 (%d スレッド)%n", processed.get(),
+                alreadyCached.get(), failed.get(), threads);
+        if (unreadable > 0) {
+            System.out.printf("読み込めずに飛ばしたもの: %d 件%n", unreadable);
+        }
+        System.out.printf("経過時間: %.2f 秒%n", seconds);
+        System.out.printf("スループット: %.1f files/s, %.1f MB/s%n", processed.get() / seconds,
+                bytesRead.get() / 1024.0 / 1024.0 / seconds);
+        if (all.length > 0) {
+            System.out.printf("デコード時間: p50 %.1f ms, p99 %.1f ms%n", percentile(all, 0.50) / 1e6,
+                    percentile(all, 0.99) / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        var index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,187 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.AWTException;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+// 同じ範囲を一定間隔で繰り返しキャプチャーする
+// Robot はフレームごとに新しい画像を返すので、それをそのままバックグラウンドで保存する
+// 保存待ちのフレームは maxPending 枚までとし、それを超えたフレームは捨てて数える（メモリーを使い切らないように）
+// 直前と同じ画面はスキップする
+class BurstCapture {
+    record Stats(int captured, int skipped, int dropped, int saved, int failed) {
+    }
+
+    private final Rectangle area;
+    private final long intervalMillis;
+    private final long durationMillis;
+    private final Path saveFolder;
+    private final CaptureEncoder encoder;
+    private final BiConsumer<Path, BufferedImage> onSaved;
+    private final Consumer<Stats> onFinished;
+
+    private final int maxPending;
+    // 保存待ちにできる残りのフレーム数
+    private final Semaphore freeSlots;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(r, "burst-capture");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final String baseName;
+    private long startedAt;
+    private long lastHash;
+    private boolean hasLastHash = false;
+
+    private final AtomicInteger captured = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // onSaved には保存したファイルとサムネイル用に縮小した画像を EDT で渡す
+    BurstCapture(Rectangle area, long intervalMillis, long durationMillis, Path saveFolder, CaptureEncoder encoder,
+            int maxPending, BiConsumer<Path, BufferedImage> onSaved, Consumer<Stats> onFinished) {
+        this.area = new Rectangle(area);
+        this.intervalMillis = intervalMillis;
+        this.durationMillis = durationMillis;
+        this.saveFolder = saveFolder;
+        this.encoder = encoder;
+        this.maxPending = maxPending;
+        this.onSaved = onSaved;
+        this.onFinished = onFinished;
+        this.baseName = "burst_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+
+        freeSlots = new Semaphore(maxPending);
+    }
+
+    void start() {
+        scheduler.execute(() -> {
+            try {
+                // 範囲選択の画面が消えるのを待ってから撮り始める
+                CaptureOverlay.robot().waitForIdle();
+            } catch (AWTException | RuntimeException e) {
+                // 撮影に失敗すれば最初の tick() で止まる
+            }
+            startedAt = System.currentTimeMillis();
+            try {
+                scheduler.scheduleAtFixedRate(this::tick, 0, intervalMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 待っている間に stop() された
+            }
+        });
+    }
+
+    void stop() {
+        if (!stopped.compareAndSet(false, true)) return;
+
+        scheduler.shutdown();
+        var finisher = new Thread(() -> {
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+                // 全ての枠が戻ってくれば保存は全て終わっている
+                freeSlots.acquire(maxPending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            var stats = stats();
+            SwingUtilities.invokeLater(() -> onFinished.accept(stats));
+        }, "burst-capture-finisher");
+        finisher.setDaemon(true);
+        finisher.start();
+    }
+
+    Stats stats() {
+        return new Stats(captured.get(), skipped.get(), dropped.get(), saved.get(), failed.get());
+    }
+
+    // scheduler スレッドで実行する
+    private void tick() {
+        if (stopped.get()) return;
+        if (System.currentTimeMillis() - startedAt >= durationMillis) {
+            stop();
+            return;
+        }
+
+        BufferedImage frame;
+        try {
+            var start = System.nanoTime();
+            frame = CaptureOverlay.robot().createScreenCapture(area);
+            Metrics.CAPTURE.recordSince(start);
+        } catch (AWTException | RuntimeException e) {
+            e.printStackTrace();
+            failed.incrementAndGet();
+            stop();
+            return;
+        }
+        var frameIndex = captured.incrementAndGet();
+        var image = toIntRgb(frame);
+
+        var hash = hash(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        if (hasLastHash && hash == lastHash) {
+            // 前のフレームと同じ画面
+            skipped.incrementAndGet();
+            return;
+        }
+
+        if (!freeSlots.tryAcquire()) {
+            // 保存が追いついていないので、撮影間隔を保つためにこのフレームは捨てる
+            dropped.incrementAndGet();
+            return;
+        }
+        lastHash = hash;
+        hasLastHash = true;
+
+        var name = String.format("%s_%04d", baseName, frameIndex);
+        encoder.save(image, saveFolder, name).whenComplete((path, ex) -> {
+            if (ex != null) {
+                freeSlots.release();
+                ex.printStackTrace();
+                failed.incrementAndGet();
+                return;
+            }
+            // 枠を返す前にサムネイル用の画像を作っておく（一番大きいレベルの大きさ）
+            var thumbnail = Thumbnails.scaleToFit(image, Thumbnails.MAX_THUMBNAIL_SIZE, Thumbnails.MAX_THUMBNAIL_SIZE);
+            freeSlots.release();
+            saved.incrementAndGet();
+            SwingUtilities.invokeLater(() -> onSaved.accept(path, thumbnail));
+        });
+    }
+
+    private BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            return image;
+        }
+        var converted = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        var g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    // 画面が変わったかを調べるための速いハッシュ
+    static long hash(int[] pixels) {
+        var h = 0xcbf29ce484222325L;
+        for (var p : pixels) {
+            h = (h ^ p) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
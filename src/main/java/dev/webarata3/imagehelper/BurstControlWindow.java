@@ -0,0 +1,74 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.BorderLayout;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JWindow;
+import javax.swing.Timer;
+
+// 連続キャプチャー中に表示する、進み具合と停止ボタンだけの小さなウィンドウ
+class BurstControlWindow extends JWindow {
+    private static final int REFRESH_INTERVAL_MILLIS = 250;
+
+    private final JLabel statusLabel = new JLabel();
+    private final Timer refreshTimer;
+
+    BurstControlWindow(JFrame parent, BurstCapture burst, Rectangle area) {
+        super(parent);
+        setAlwaysOnTop(true);
+
+        var panel = new JPanel(new BorderLayout(8, 0));
+        panel.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+        panel.add(statusLabel, BorderLayout.CENTER);
+        var stopBtn = new JButton("停止");
+        stopBtn.addActionListener(a -> {
+            stopBtn.setEnabled(false);
+            statusLabel.setText("保存中...");
+            burst.stop();
+        });
+        panel.add(stopBtn, BorderLayout.EAST);
+        getContentPane().add(panel);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, e -> {
+            if (stopBtn.isEnabled()) showStats(burst.stats());
+        });
+        showStats(burst.stats());
+        pack();
+        setLocation(locationAvoiding(area));
+        refreshTimer.start();
+        setVisible(true);
+    }
+
+    private void showStats(BurstCapture.Stats stats) {
+        statusLabel.setText(String.format("保存 %d 枚 / 同じ画面 %d / 取りこぼし %d", stats.saved(), stats.skipped(),
+                stats.dropped()));
+    }
+
+    // キャプチャー範囲に重ならない作業領域の隅に置く。どこも重なるときは右下に置く
+    private Point locationAvoiding(Rectangle area) {
+        var bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        var w = getWidth();
+        var h = getHeight();
+        var right = bounds.x + bounds.width - w;
+        var bottom = bounds.y + bounds.height - h;
+        Point[] corners = { new Point(right, bottom), new Point(bounds.x, bottom), new Point(right, bounds.y),
+                new Point(bounds.x, bounds.y) };
+        for (var corner : corners) {
+            if (!area.intersects(new Rectangle(corner.x, corner.y, w, h))) return corner;
+        }
+        return corners[0];
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        super.dispose();
+    }
+}
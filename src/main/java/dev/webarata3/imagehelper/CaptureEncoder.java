@@ -0,0 +1,96 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+
+// キャプチャーした画像をバックグラウンドで PNG に変換して保存する
+// 一時ファイルに書き出してから名前を変えるので、書き込み途中のファイルがフォルダーに現れることはない
+class CaptureEncoder {
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    // 保存待ちと保存中の数
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // compressionLevel: 0（無圧縮・最速）～ 9（最大圧縮）
+    CaptureEncoder(int compressionLevel, int threads) {
+        this.compressionLevel = Math.max(0, Math.min(9, compressionLevel));
+
+        var threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            var t = new Thread(r, "capture-encoder-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // folder に baseName.png として保存する。同名のファイルがあれば baseName_2.png のように番号を付ける
+    CompletableFuture<Path> save(BufferedImage image, Path folder, String baseName) {
+        pending.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(image, folder, baseName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }, executor);
+    }
+
+    int pendingCount() {
+        return pending.get();
+    }
+
+    private Path write(BufferedImage image, Path folder, String baseName) throws IOException {
+        // 拡張子を .tmp にしてフォルダー監視の対象外にする
+        var tmp = Files.createTempFile(folder, "." + baseName, ".png.tmp");
+        try {
+            var writer = ImageIO.getImageWritersByFormatName("png").next();
+            try (var output = ImageIO.createImageOutputStream(tmp.toFile())) {
+                var param = writer.getDefaultWriteParam();
+                if (param.canWriteCompressed()) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    // PNG の圧縮品質は 1.0 が無圧縮、0.0 が最大圧縮
+                    param.setCompressionQuality(1.0f - compressionLevel / 9.0f);
+                }
+                writer.setOutput(output);
+                var start = System.nanoTime();
+                writer.write(null, new IIOImage(image, null, null), param);
+                Metrics.ENCODE.recordSince(start);
+            } finally {
+                writer.dispose();
+            }
+
+            var target = uniquePath(folder, baseName);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target);
+            }
+            return target;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path uniquePath(Path folder, String baseName) {
+        var path = folder.resolve(baseName + ".png");
+        for (var i = 2; Files.exists(path); i++) {
+            path = folder.resolve(baseName + "_" + i + ".png");
+        }
+        return path;
+    }
+}
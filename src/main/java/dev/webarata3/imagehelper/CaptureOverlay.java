@@ -1,31 +1,67 @@
 package dev.webarata3.imagehelper;
 
+import java.awt.AWTException;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Robot;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
-import java.io.File;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JWindow;
 import javax.swing.SwingUtilities;
 
 class CaptureOverlay extends JWindow {
+    // 画面の取り込みは EDT の外で行う
+    private static final ExecutorService GRABBER = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "capture-grabber");
+        t.setDaemon(true);
+        return t;
+    });
+    private static Robot robot;
+
     private Point start;
     private Point end;
-    private final File saveFolder;
+    private final Path saveFolder;
+    private final CaptureEncoder encoder;
+    // 保存できたファイルと、その画素（読み直さずにサムネイルを作るため）
+    private final BiConsumer<Path, BufferedImage> onSaved;
+    // 範囲の選択だけを行うとき（連続キャプチャー）の通知先
+    private final Consumer<Rectangle> onSelected;
+
+    public CaptureOverlay(JFrame parent, Path saveFolder, CaptureEncoder encoder,
+            BiConsumer<Path, BufferedImage> onSaved) {
+        this(parent, saveFolder, encoder, onSaved, null);
+    }
 
-    public CaptureOverlay(JFrame parent, File saveFolder) {
+    // 範囲を選択するだけで取り込みはしない。オーバーレイが消えてから画面座標の範囲を EDT で通知する
+    // 選択されなかったときは null を渡す。親ウィンドウは再表示しない
+    public CaptureOverlay(JFrame parent, Consumer<Rectangle> onSelected) {
+        this(parent, null, null, null, onSelected);
+    }
+
+    private CaptureOverlay(JFrame parent, Path saveFolder, CaptureEncoder encoder,
+            BiConsumer<Path, BufferedImage> onSaved, Consumer<Rectangle> onSelected) {
         super(parent);
         this.saveFolder = saveFolder;
+        this.encoder = encoder;
+        this.onSaved = onSaved;
+        this.onSelected = onSelected;
 
         setBounds(GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds());
         setBackground(new Color(0, 0, 0, 50));
@@ -40,7 +76,6 @@ class CaptureOverlay extends JWindow {
             public void mouseReleased(MouseEvent e) {
                 end = e.getPoint();
                 captureScreen();
-                dispose();
             }
         });
 
@@ -64,37 +99,95 @@ class CaptureOverlay extends JWindow {
         }
     }
 
-    private void captureScreen() {
-        if (start == null || end == null) return;
+    // 選択範囲（画面座標）。範囲が無ければ null
+    private Rectangle selection() {
+        if (start == null || end == null) return null;
 
         var x = Math.min(start.x, end.x);
         var y = Math.min(start.y, end.y);
         var w = Math.abs(start.x - end.x);
         var h = Math.abs(start.y - end.y);
+        if (w == 0 || h == 0) return null;
 
-        try {
-            // オーバーレイを非表示（Robot の前に必要）
+        // オーバーレイは作業領域に合わせているので画面座標に直す
+        return new Rectangle(getX() + x, getY() + y, w, h);
+    }
+
+    private void captureScreen() {
+        var area = selection();
+        if (onSelected != null) {
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentHidden(ComponentEvent e) {
+                    removeComponentListener(this);
+                    dispose();
+                    onSelected.accept(area);
+                }
+            });
             setVisible(false);
+            return;
+        }
+        if (area == null) {
+            finish();
+            return;
+        }
+        var timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
 
-            // 十分に非表示になるのを待つ（描画のタイミングを考慮）
-            Thread.sleep(200);
+        // オーバーレイが実際に非表示になってから取り込む
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                removeComponentListener(this);
+                GRABBER.execute(() -> grab(area, timestamp));
+            }
+        });
+        setVisible(false);
+    }
 
-            var robot = new Robot();
-            var image = robot.createScreenCapture(new Rectangle(x, y, w, h));
-            var timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            var output = new File(saveFolder, "screenshot_" + timestamp + ".png");
-            ImageIO.write(image, "png", output);
-        } catch (Exception ex) {
+    // GRABBER スレッドで実行する
+    private void grab(Rectangle area, String timestamp) {
+        BufferedImage image;
+        try {
+            var r = robot();
+            // 非表示にしたことによる再描画などのイベントが処理されるのを待つ
+            r.waitForIdle();
+            var start = System.nanoTime();
+            image = r.createScreenCapture(area);
+            Metrics.CAPTURE.recordSince(start);
+        } catch (AWTException | RuntimeException ex) {
             ex.printStackTrace();
-        } finally {
-            dispose(); // オーバーレイを破棄
+            SwingUtilities.invokeLater(this::finish);
+            return;
+        }
 
-            // 親ウィンドウを再表示
+        // 取り込めたらすぐに元の画面に戻し、保存はバックグラウンドで行う
+        SwingUtilities.invokeLater(this::finish);
+        encoder.save(image, saveFolder, "screenshot_" + timestamp).whenComplete((path, ex) -> {
             SwingUtilities.invokeLater(() -> {
-                if (getOwner() != null) {
-                    getOwner().setVisible(true);
+                if (ex != null) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(getOwner(), "キャプチャーを保存できませんでした: " + ex.getMessage());
+                } else {
+                    onSaved.accept(path, image);
                 }
             });
+        });
+    }
+
+    private void finish() {
+        dispose(); // オーバーレイを破棄
+
+        // 親ウィンドウを再表示
+        if (getOwner() != null) {
+            getOwner().setVisible(true);
+        }
+    }
+
+    // Robot は作るのに時間がかかるので使い回す
+    static synchronized Robot robot() throws AWTException {
+        if (robot == null) {
+            robot = new Robot();
         }
+        return robot;
     }
 }
@@ -0,0 +1,96 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.BorderLayout;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarFile;
+
+import javax.imageio.ImageIO;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSlider;
+import javax.swing.UIManager;
+
+// AppCDS アーカイブを作るための学習用の実行（画面の無いビルド環境で動かす）
+// 起動時に使うクラスをロードしておき、終了時に -XX:ArchiveClassesAtExit で保存させる
+// 使い方: cds-training
+class CdsTraining {
+    private CdsTraining() {
+    }
+
+    static int run() {
+        try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // 画面を作るときに使う部品
+        var panel = new JPanel(new BorderLayout());
+        panel.add(new JLabel("ImageHelper"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(new ThumbnailGrid(Thumbnails.THUMBNAIL_SIZE, 10, path -> null)),
+                BorderLayout.CENTER);
+        panel.add(new JButton("OK"), BorderLayout.SOUTH);
+        panel.add(new JCheckBox(), BorderLayout.EAST);
+        panel.add(new JComboBox<>(new String[] { "a", "b" }), BorderLayout.WEST);
+        panel.add(new JSlider());
+        panel.doLayout();
+
+        try {
+            loadAppClasses();
+            decodeSamples();
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
+    // このアプリケーションのクラスを全てロードする（初期化はしない）
+    private static void loadAppClasses() throws IOException, URISyntaxException {
+        var location = Path.of(CdsTraining.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        if (!Files.isRegularFile(location)) return;
+
+        var loader = CdsTraining.class.getClassLoader();
+        try (var jar = new JarFile(location.toFile())) {
+            for (var entry : jar.stream().toList()) {
+                var name = entry.getName();
+                if (!name.endsWith(".class") || name.equals("module-info.class")) continue;
+                try {
+                    Class.forName(name.substring(0, name.length() - ".class".length()).replace('/', '.'), false,
+                            loader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // 学習用なのでロードできないクラスは飛ばす
+                }
+            }
+        }
+    }
+
+    // 対応している形式を一通りデコードし、ImageIO の読み込み処理をロードさせる
+    private static void decodeSamples() throws IOException {
+        var image = new BufferedImage(1200, 900, BufferedImage.TYPE_INT_RGB);
+        var dir = Files.createTempDirectory("imagehelper-cds");
+        try {
+            for (var format : List.of("png", "jpg", "gif", "bmp")) {
+                var file = dir.resolve("sample." + format);
+                ImageIO.write(image, format, file.toFile());
+                Thumbnails.readSize(file);
+                var thumbnail = Thumbnails.decode(file, Thumbnails.MAX_THUMBNAIL_SIZE, Thumbnails.MAX_THUMBNAIL_SIZE);
+                if (thumbnail != null) {
+                    Thumbnails.buildLevels(thumbnail, Thumbnails.MAX_THUMBNAIL_SIZE);
+                }
+                Files.delete(file);
+            }
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+// 内容が同じ画像と、見た目が似ている画像をグループにまとめる
+// ハッシュの計算は fork/join で並列に行い、計算済みのものは ImageHashStore から読む
+class DuplicateFinder {
+    record Group(List<Path> paths, boolean exact) {
+    }
+
+    // dHash のハミング距離がこれ以下なら似ている画像とみなす
+    static final int NEAR_DUPLICATE_DISTANCE = 6;
+    // これ以下の数になるまでタスクを分割する
+    private static final int LEAF_SIZE = 16;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final ImageHashStore store;
+    // サムネイルを返す（キャッシュにあればデコードしない）。読み込めなければ null
+    private final Function<Path, BufferedImage> thumbnails;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    DuplicateFinder(ImageHashStore store, Function<Path, BufferedImage> thumbnails) {
+        this.store = store;
+        this.thumbnails = thumbnails;
+    }
+
+    void cancel() {
+        cancelled.set(true);
+    }
+
+    // 呼び出したスレッドで完了まで待つ。progress には処理済みの件数を渡す（どのスレッドからも呼ばれる）
+    // キャンセルされたときは空のリストを返す
+    List<Group> find(List<Path> paths, IntConsumer progress) {
+        var hashes = new ConcurrentHashMap<Path, ImageHashStore.Entry>();
+        var done = new AtomicInteger();
+        POOL.invoke(new HashTask(paths, 0, paths.size(), hashes, done, progress));
+        store.flush();
+        if (cancelled.get()) return List.of();
+
+        return group(paths, hashes);
+    }
+
+    private class HashTask extends RecursiveAction {
+        private final List<Path> paths;
+        private final int from;
+        private final int to;
+        private final Map<Path, ImageHashStore.Entry> hashes;
+        private final AtomicInteger done;
+        private final IntConsumer progress;
+
+        HashTask(List<Path> paths, int from, int to, Map<Path, ImageHashStore.Entry> hashes, AtomicInteger done,
+                IntConsumer progress) {
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+            this.hashes = hashes;
+            this.done = done;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                var middle = (from + to) >>> 1;
+                invokeAll(new HashTask(paths, from, middle, hashes, done, progress),
+                        new HashTask(paths, middle, to, hashes, done, progress));
+                return;
+            }
+            for (var i = from; i < to; i++) {
+                if (cancelled.get()) return;
+
+                var path = paths.get(i);
+                var entry = hash(path);
+                if (entry != null) {
+                    hashes.put(path, entry);
+                }
+                progress.accept(done.incrementAndGet());
+            }
+        }
+    }
+
+    private ImageHashStore.Entry hash(Path path) {
+        try {
+            var attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            var size = attrs.size();
+            var lastModified = attrs.lastModifiedTime().toMillis();
+            var entry = store.get(path, size, lastModified);
+            if (entry != null) return entry;
+
+            var thumbnail = thumbnails.apply(path);
+            if (thumbnail == null) return null;
+            entry = new ImageHashStore.Entry(size, lastModified, ImageHashes.contentHash(path),
+                    ImageHashes.dHash(thumbnail));
+            store.put(path, entry);
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<Group> group(List<Path> paths, Map<Path, ImageHashStore.Entry> hashes) {
+        // 内容のハッシュごとにまとめる
+        var byContent = new HashMap<String, List<Path>>();
+        for (var path : paths) {
+            var entry = hashes.get(path);
+            if (entry == null) continue;
+            byContent.computeIfAbsent(entry.contentHash(), k -> new ArrayList<>()).add(path);
+        }
+
+        // 内容ごとに代表を 1 つ選び、dHash が近いものを union-find でつなぐ
+        var representatives = new ArrayList<List<Path>>(byContent.values());
+        var index = new HammingIndex(NEAR_DUPLICATE_DISTANCE);
+        for (var samePaths : representatives) {
+            index.add(hashes.get(samePaths.get(0)).dHash());
+        }
+        var parent = new int[representatives.size()];
+        for (var i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (var i = 0; i < representatives.size(); i++) {
+            var dHash = hashes.get(representatives.get(i).get(0)).dHash();
+            for (var j : index.search(dHash)) {
+                union(parent, i, j);
+            }
+        }
+
+        var byRoot = new HashMap<Integer, List<Integer>>();
+        for (var i = 0; i < representatives.size(); i++) {
+            byRoot.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(i);
+        }
+        var groups = new ArrayList<Group>();
+        for (var members : byRoot.values()) {
+            var groupPaths = new ArrayList<Path>();
+            for (var i : members) {
+                groupPaths.addAll(representatives.get(i));
+            }
+            if (groupPaths.size() < 2) continue;
+            groupPaths.sort(Comparator.comparing(p -> p.getFileName().toString()));
+            groups.add(new Group(groupPaths, members.size() == 1));
+        }
+        groups.sort(Comparator.comparingInt((Group g) -> g.paths().size()).reversed()
+                .thenComparing(g -> g.paths().get(0).getFileName().toString()));
+        return groups;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        var rootA = find(parent, a);
+        var rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[rootB] = rootA;
+        }
+    }
+}
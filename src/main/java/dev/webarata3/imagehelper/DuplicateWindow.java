@@ -0,0 +1,135 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JList;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+// 重複・類似画像のグループを一覧表示するウィンドウ
+// 左にグループの一覧、右に選んだグループのサムネイルを表示する
+class DuplicateWindow extends JDialog {
+    private final DuplicateFinder finder;
+    private final Function<Path, BufferedImage> cachedThumbnails;
+    private final Function<Path, BufferedImage> thumbnails;
+    private final JProgressBar progressBar;
+    private final DefaultListModel<DuplicateFinder.Group> groupModel = new DefaultListModel<>();
+    private final ThumbnailGrid grid;
+    // キャッシュに無かったサムネイルをこのウィンドウ用に読み込む
+    private final ExecutorService thumbnailExecutor = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "duplicate-thumbnail");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<Path> requested = ConcurrentHashMap.newKeySet();
+
+    // cachedThumbnails: キャッシュにあるサムネイルだけを返す（EDT から呼ぶ）
+    // thumbnails: 必要ならデコードしてサムネイルを返す（バックグラウンドから呼ぶ）
+    DuplicateWindow(JFrame owner, List<Path> paths, ImageHashStore store,
+            Function<Path, BufferedImage> cachedThumbnails, Function<Path, BufferedImage> thumbnails,
+            Consumer<Path> openListener) {
+        super(owner, "重複している画像", false);
+        this.cachedThumbnails = cachedThumbnails;
+        this.thumbnails = thumbnails;
+        this.finder = new DuplicateFinder(store, thumbnails);
+
+        progressBar = new JProgressBar(0, paths.size());
+        progressBar.setStringPainted(true);
+        progressBar.setString("0 / " + paths.size());
+
+        var groupList = new JList<>(groupModel);
+        groupList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        groupList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                var group = (DuplicateFinder.Group) value;
+                var text = String.format("%s（%d 枚）%s", group.paths().get(0).getFileName(), group.paths().size(),
+                        group.exact() ? "" : " 類似");
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
+        grid = new ThumbnailGrid(Thumbnails.THUMBNAIL_SIZE, 10, this::thumbnail);
+        grid.setOpenListener(openListener);
+        groupList.addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting()) return;
+            grid.clear();
+            var group = groupList.getSelectedValue();
+            if (group != null) {
+                grid.addPaths(group.paths());
+            }
+        });
+
+        var listScroll = new JScrollPane(groupList);
+        listScroll.setPreferredSize(new Dimension(260, 400));
+        var split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, listScroll, new JScrollPane(grid));
+        getContentPane().add(progressBar, BorderLayout.NORTH);
+        getContentPane().add(split, BorderLayout.CENTER);
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(900, 600);
+        setLocationRelativeTo(owner);
+
+        start(paths);
+    }
+
+    private void start(List<Path> paths) {
+        var total = paths.size();
+        var t = new Thread(() -> {
+            var groups = finder.find(paths, done -> {
+                if (done % 32 == 0 || done == total) {
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setValue(done);
+                        progressBar.setString(done + " / " + total);
+                    });
+                }
+            });
+            SwingUtilities.invokeLater(() -> {
+                progressBar.setValue(total);
+                progressBar.setString(groups.isEmpty() ? "重複している画像はありません"
+                        : String.format("%d グループ見つかりました", groups.size()));
+                groupModel.addAll(groups);
+            });
+        }, "duplicate-finder");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private BufferedImage thumbnail(Path path) {
+        var thumbnail = cachedThumbnails.apply(path);
+        if (thumbnail == null && requested.add(path)) {
+            thumbnailExecutor.execute(() -> {
+                if (thumbnails.apply(path) != null) {
+                    SwingUtilities.invokeLater(() -> grid.repaintPath(path));
+                }
+            });
+        }
+        return thumbnail;
+    }
+
+    @Override
+    public void dispose() {
+        finder.cancel();
+        thumbnailExecutor.shutdownNow();
+        super.dispose();
+    }
+}
@@ -0,0 +1,70 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.EventQueue;
+import java.util.concurrent.TimeUnit;
+
+// 一定間隔で EDT に空のイベントを投げ、実行されるまでの時間を測る
+// しきい値を超えて EDT が止まっているときは、その時点の EDT のスタックトレースを出力する
+class EdtWatchdog {
+    private static final long CHECK_INTERVAL_MILLIS = 100;
+
+    private final long thresholdNanos;
+    private volatile Thread edt;
+    // 投げたイベントが実行されたら 0 に戻す
+    private volatile long postedAt = 0;
+
+    EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    void start() {
+        var t = new Thread(this::run, "edt-watchdog");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run() {
+        var reported = false;
+        try {
+            while (true) {
+                Thread.sleep(CHECK_INTERVAL_MILLIS);
+
+                var posted = postedAt;
+                if (posted == 0) {
+                    var now = System.nanoTime();
+                    postedAt = now;
+                    reported = false;
+                    EventQueue.invokeLater(() -> heartbeat(now));
+                } else if (!reported && System.nanoTime() - posted > thresholdNanos) {
+                    reported = true;
+                    report(System.nanoTime() - posted);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // EDT で実行する
+    private void heartbeat(long posted) {
+        edt = Thread.currentThread();
+        var delay = System.nanoTime() - posted;
+        Metrics.EDT_DELAY.record(delay);
+        if (delay > thresholdNanos) {
+            Metrics.recordEdtStall(delay);
+        }
+        postedAt = 0;
+    }
+
+    private void report(long blockedNanos) {
+        var thread = edt;
+        var sb = new StringBuilder();
+        sb.append(String.format("EDT が %d ms 以上止まっています%n", TimeUnit.NANOSECONDS.toMillis(blockedNanos)));
+        if (thread != null) {
+            for (var element : thread.getStackTrace()) {
+                sb.append("\tat ").append(element).append(System.lineSeparator());
+            }
+        }
+        System.err.print(sb);
+    }
+}
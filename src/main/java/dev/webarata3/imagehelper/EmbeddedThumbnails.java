@@ -0,0 +1,178 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+// JPEG の APP1（EXIF）に埋め込まれたサムネイルを取り出す
+// 標準の JPEG デコーダーは EXIF のサムネイルを読まないので、セグメントを自分で解析する
+// ファイルの先頭（画像データの手前）までしか読まない
+class EmbeddedThumbnails {
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    // EXIF のサムネイルが JPEG で保存されているときの Compression の値
+    private static final int COMPRESSION_JPEG = 6;
+
+    private EmbeddedThumbnails() {
+    }
+
+    // maxWidth x maxHeight の縮小に使える埋め込みのサムネイル
+    // 無いか、JPEG でないか、小さすぎるか縦横比が元画像と違えば null
+    static BufferedImage read(Path path, int maxWidth, int maxHeight) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readUnsignedShort() != 0xFFD8) return null;
+
+            byte[] thumbnailBytes = null;
+            while (true) {
+                var marker = readMarker(in);
+                // 画像データの開始（SOS）か終わり（EOI）まで来たら、SOF が無かった
+                if (marker == 0xDA || marker == 0xD9) return null;
+                // 長さを持たないマーカー
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) continue;
+
+                var length = in.readUnsignedShort() - 2;
+                if (length < 0) return null;
+                if (marker == 0xE1 && thumbnailBytes == null) {
+                    var segment = new byte[length];
+                    in.readFully(segment);
+                    thumbnailBytes = exifThumbnail(segment);
+                } else if (isStartOfFrame(marker)) {
+                    // SOF は APP セグメントより後にあるので、ここまでにサムネイルが見つかっていなければ無い
+                    if (thumbnailBytes == null) return null;
+                    in.readUnsignedByte(); // 精度
+                    var height = in.readUnsignedShort();
+                    var width = in.readUnsignedShort();
+                    if (width == 0 || height == 0) return null;
+                    return decodeIfUsable(thumbnailBytes, width, height, maxWidth, maxHeight);
+                } else {
+                    in.skipNBytes(length);
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // ヘッダーでサムネイルのサイズを確かめ、使えるものだけをデコードする
+    private static BufferedImage decodeIfUsable(byte[] bytes, int imageWidth, int imageHeight, int maxWidth,
+            int maxHeight) throws IOException {
+        try (var input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            if (input == null) return null;
+
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+
+            var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (!Thumbnails.isUsable(reader.getWidth(0), reader.getHeight(0), imageWidth, imageHeight, maxWidth,
+                        maxHeight)) {
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != 0xFF) throw new EOFException("マーカーがありません");
+        int marker;
+        do {
+            // 詰め物の 0xFF を読み飛ばす
+            marker = in.readUnsignedByte();
+        } while (marker == 0xFF);
+        return marker;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    // APP1 セグメントから IFD1（サムネイル用の IFD）が指す JPEG のバイト列を取り出す
+    private static byte[] exifThumbnail(byte[] segment) {
+        var tiff = 6;
+        if (segment.length < tiff + 8 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i'
+                || segment[3] != 'f' || segment[4] != 0 || segment[5] != 0) {
+            return null;
+        }
+        boolean littleEndian;
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+        var tiffData = new TiffData(segment, tiff, littleEndian);
+
+        // IFD0 を読み飛ばして IFD1 の位置を得る
+        var ifd0 = tiffData.u32(4);
+        if (ifd0 < 0 || !tiffData.has(ifd0, 2)) return null;
+        var ifd0Count = tiffData.u16(ifd0);
+        var nextOffset = ifd0 + 2 + ifd0Count * 12L;
+        if (!tiffData.has(nextOffset, 4)) return null;
+        var ifd1 = tiffData.u32(nextOffset);
+        if (ifd1 <= 0 || !tiffData.has(ifd1, 2)) return null;
+
+        var count = tiffData.u16(ifd1);
+        long offset = -1;
+        long length = -1;
+        var compression = COMPRESSION_JPEG;
+        for (var i = 0; i < count; i++) {
+            var entry = ifd1 + 2 + i * 12L;
+            if (!tiffData.has(entry, 12)) return null;
+            var tag = tiffData.u16(entry);
+            var type = tiffData.u16(entry + 2);
+            // SHORT（3）は値の先頭 2 バイト、LONG（4）は 4 バイト
+            var value = type == 3 ? tiffData.u16(entry + 8) : tiffData.u32(entry + 8);
+            switch (tag) {
+                case TAG_COMPRESSION -> compression = (int) value;
+                case TAG_JPEG_OFFSET -> offset = value;
+                case TAG_JPEG_LENGTH -> length = value;
+                default -> {
+                }
+            }
+        }
+        if (compression != COMPRESSION_JPEG || offset <= 0 || length <= 0 || !tiffData.has(offset, length)) {
+            return null;
+        }
+        var start = (int) (tiff + offset);
+        var bytes = new byte[(int) length];
+        System.arraycopy(segment, start, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    // TIFF 形式のデータ（EXIF の中身）を、TIFF ヘッダーからの位置で読む
+    private record TiffData(byte[] data, int base, boolean littleEndian) {
+        boolean has(long offset, long length) {
+            return offset >= 0 && length >= 0 && base + offset + length <= data.length;
+        }
+
+        int u16(long offset) {
+            var p = (int) (base + offset);
+            var a = data[p] & 0xff;
+            var b = data[p + 1] & 0xff;
+            return littleEndian ? (b << 8) | a : (a << 8) | b;
+        }
+
+        long u32(long offset) {
+            var p = (int) (base + offset);
+            long value = 0;
+            for (var i = 0; i < 4; i++) {
+                var b = data[p + (littleEndian ? 3 - i : i)] & 0xffL;
+                value = (value << 8) | b;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package dev.webarata3.imagehelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+// 複数のファイルの削除・移動・コピーをバックグラウンドのスレッドでまとめて行う
+// 削除はファイルと同じフォルダーの .imagehelper_trash に移すだけ（同じファイルシステム内なので名前の変更で済む）
+// 直近の操作は元に戻せる。元に戻せなくなった操作のゴミ箱の中身はそのときに削除する
+// 作ったゴミ箱のフォルダーは journal に記録しておき、終了までに削除しきれなかったもの（異常終了を含む）は次の起動時に削除する
+class FileOperations {
+    enum Kind {
+        DELETE("削除"), MOVE("移動"), COPY("コピー"), UNDO("元に戻す");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    record Failure(Path path, String message) {
+    }
+
+    // succeeded: 処理できた元のファイル（UNDO では元の場所に戻したファイル）
+    record Result(Kind kind, List<Path> succeeded, List<Failure> failed) {
+    }
+
+    // どちらも EDT で呼ぶ
+    interface Listener {
+        void progress(Kind kind, int done, int total);
+
+        void finished(Result result);
+    }
+
+    // スキャナーは「.」で始まるフォルダーをたどらないので、ゴミ箱の中身は一覧に出ない
+    static final String TRASH_DIR_NAME = ".imagehelper_trash";
+    // 元に戻せる操作の数
+    private static final int MAX_UNDO = 10;
+    // 進み具合を EDT に知らせる間隔
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private record Transfer(Path from, Path to) {
+    }
+
+    private record Batch(Kind kind, List<Transfer> transfers) {
+    }
+
+    // 同じディスクへの読み書きを並行しても速くならないので 1 スレッドで順に行う
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                var t = new Thread(r, "file-operations");
+                t.setDaemon(true);
+                return t;
+            });
+    // 元に戻せる操作（EDT からのみ使う）
+    private final Deque<Batch> undoStack = new ArrayDeque<>();
+    private final AtomicInteger batchCount = new AtomicInteger();
+    // 作ったゴミ箱のバッチのフォルダーを 1 行に 1 つ書く
+    private final Path journal;
+    // journal に書いたフォルダー（executor のスレッドからのみ触る）
+    private final Set<Path> journaled = new HashSet<>();
+
+    FileOperations(Path journal) {
+        this.journal = journal;
+        // 前回の起動で残ったゴミ箱を、この後に依頼される操作より先に削除する
+        executor.execute(this::purgeLeftovers);
+    }
+
+    static FileOperations openDefault() {
+        return new FileOperations(AppDirs.cacheDir().resolve("trash-batches.txt"));
+    }
+
+    // paths をまとめて処理する。destination は MOVE と COPY の移動先・コピー先のフォルダー
+    void run(Kind kind, List<Path> paths, Path destination, Listener listener) {
+        if (kind == Kind.UNDO) throw new IllegalArgumentException("元に戻すには undo() を使います");
+        var files = List.copyOf(paths);
+        var batchName = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_"
+                + batchCount.incrementAndGet();
+        executor.execute(() -> {
+            var progress = new Progress(kind, files.size(), listener);
+            var transfers = new ArrayList<Transfer>();
+            var succeeded = new ArrayList<Path>();
+            var failed = new ArrayList<Failure>();
+            for (var from : files) {
+                try {
+                    var to = switch (kind) {
+                        case DELETE -> trash(from, batchName);
+                        case MOVE -> move(from, destination);
+                        case COPY -> copy(from, destination);
+                        case UNDO -> throw new IllegalStateException();
+                    };
+                    transfers.add(new Transfer(from, to));
+                    succeeded.add(from);
+                } catch (IOException | RuntimeException e) {
+                    failed.add(new Failure(from, message(e)));
+                }
+                progress.advance();
+            }
+            var result = new Result(kind, succeeded, failed);
+            SwingUtilities.invokeLater(() -> {
+                if (!transfers.isEmpty()) {
+                    pushUndo(new Batch(kind, transfers));
+                }
+                listener.finished(result);
+            });
+        });
+    }
+
+    // EDT で呼ぶ
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    // 直前の操作を元に戻す。戻せる操作が無ければ false。EDT で呼ぶ
+    boolean undo(Listener listener) {
+        var batch = undoStack.pollFirst();
+        if (batch == null) return false;
+
+        executor.execute(() -> {
+            var transfers = batch.transfers();
+            var progress = new Progress(Kind.UNDO, transfers.size(), listener);
+            var succeeded = new ArrayList<Path>();
+            var failed = new ArrayList<Failure>();
+            // 後に行ったものから戻す
+            for (var i = transfers.size() - 1; i >= 0; i--) {
+                var transfer = transfers.get(i);
+                try {
+                    if (batch.kind() == Kind.COPY) {
+                        Files.deleteIfExists(transfer.to());
+                    } else {
+                        if (Files.exists(transfer.from())) {
+                            throw new FileAlreadyExistsException(transfer.from().toString());
+                        }
+                        rename(transfer.to(), transfer.from());
+                        if (batch.kind() == Kind.DELETE) {
+                            deleteEmptyTrash(transfer.to().getParent());
+                        }
+                    }
+                    succeeded.add(transfer.from());
+                } catch (IOException | RuntimeException e) {
+                    failed.add(new Failure(transfer.from(), message(e)));
+                }
+                progress.advance();
+            }
+            var result = new Result(Kind.UNDO, succeeded, failed);
+            SwingUtilities.invokeLater(() -> listener.finished(result));
+        });
+        return true;
+    }
+
+    // 終了時にゴミ箱に残っているファイルの削除を始める。EDT を止めないように完了は待たない
+    // 終了までに削除しきれなかったものは次の起動時に削除する
+    void shutdown() {
+        var batches = List.copyOf(undoStack);
+        undoStack.clear();
+        for (var batch : batches) {
+            purgeLater(batch);
+        }
+        executor.shutdown();
+    }
+
+    int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private void pushUndo(Batch batch) {
+        undoStack.addFirst(batch);
+        while (undoStack.size() > MAX_UNDO) {
+            purgeLater(undoStack.pollLast());
+        }
+    }
+
+    // 元に戻せなくなった削除の、ゴミ箱の中身を削除する
+    private void purgeLater(Batch batch) {
+        if (batch.kind() != Kind.DELETE) return;
+
+        executor.execute(() -> {
+            for (var transfer : batch.transfers()) {
+                try {
+                    Files.deleteIfExists(transfer.to());
+                    deleteEmptyTrash(transfer.to().getParent());
+                } catch (IOException e) {
+                    // 消せなかったものはゴミ箱に残るだけ
+                }
+            }
+        });
+    }
+
+    // 前回までの起動で journal に記録したゴミ箱を中身ごと削除する（この起動では元に戻せない）
+    private void purgeLeftovers() {
+        List<String> lines;
+        try {
+            if (!Files.exists(journal)) return;
+            lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return;
+        }
+        for (var line : lines) {
+            Path batchDir;
+            try {
+                batchDir = Path.of(line);
+            } catch (InvalidPathException e) {
+                continue;
+            }
+            var trashDir = batchDir.getParent();
+            // 記録が壊れていても、ゴミ箱以外のフォルダーは消さない
+            if (trashDir == null || trashDir.getFileName() == null
+                    || !trashDir.getFileName().toString().equals(TRASH_DIR_NAME)) {
+                continue;
+            }
+            try (var files = Files.newDirectoryStream(batchDir)) {
+                for (var file : files) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                // 既に無いか、消せなかったものはゴミ箱に残るだけ
+            }
+            try {
+                deleteEmptyTrash(batchDir);
+            } catch (IOException e) {
+                // 同上
+            }
+        }
+        try {
+            Files.deleteIfExists(journal);
+        } catch (IOException e) {
+            // 次の起動時にもう一度試す
+        }
+    }
+
+    private Path trash(Path from, String batchName) throws IOException {
+        var dir = from.getParent().resolve(TRASH_DIR_NAME).resolve(batchName);
+        Files.createDirectories(dir);
+        if (journaled.add(dir)) {
+            Files.createDirectories(journal.getParent());
+            Files.writeString(journal, dir.toAbsolutePath() + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        }
+        var to = dir.resolve(from.getFileName());
+        rename(from, to);
+        return to;
+    }
+
+    private static Path move(Path from, Path destination) throws IOException {
+        if (from.getParent().equals(destination)) throw new IOException("移動先が同じフォルダーです");
+        var to = destination.resolve(from.getFileName());
+        // 同じファイルシステムなら名前の変更、違えばコピーしてから削除になる
+        Files.move(from, to);
+        return to;
+    }
+
+    private static Path copy(Path from, Path destination) throws IOException {
+        var to = destination.resolve(from.getFileName());
+        Files.copy(from, to, StandardCopyOption.COPY_ATTRIBUTES);
+        return to;
+    }
+
+    private static void rename(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to);
+        }
+    }
+
+    // バッチのフォルダーとゴミ箱が空になったら消す
+    private static void deleteEmptyTrash(Path batchDir) throws IOException {
+        try {
+            Files.deleteIfExists(batchDir);
+            Files.deleteIfExists(batchDir.getParent());
+        } catch (DirectoryNotEmptyException e) {
+            // まだ他のファイルが残っている
+        }
+    }
+
+    private static String message(Exception e) {
+        if (e instanceof NoSuchFileException) return "ファイルがありません";
+        if (e instanceof FileAlreadyExistsException) return "同じ名前のファイルがあります";
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    // 進み具合を一定の間隔でだけ EDT に知らせる（ファイルごとに知らせるとイベントが溜まる）
+    private static final class Progress {
+        private final Kind kind;
+        private final int total;
+        private final Listener listener;
+        private int done = 0;
+        private long lastNotified = System.nanoTime();
+
+        Progress(Kind kind, int total, Listener listener) {
+            this.kind = kind;
+            this.total = total;
+            this.listener = listener;
+            SwingUtilities.invokeLater(() -> listener.progress(kind, 0, total));
+        }
+
+        void advance() {
+            done++;
+            var now = System.nanoTime();
+            if (done < total && now - lastNotified < PROGRESS_INTERVAL_NANOS) return;
+
+            lastNotified = now;
+            var current = done;
+            SwingUtilities.invokeLater(() -> listener.progress(kind, current, total));
+        }
+    }
+}
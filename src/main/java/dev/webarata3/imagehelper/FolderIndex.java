@@ -0,0 +1,79 @@
+package dev.webarata3.imagehelper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 走査したフォルダーの内容をメモリに保持しておく
+// フォルダーの更新日時が変わっていなければ、次の走査ではその一覧を読み直さずに使う
+class FolderIndex {
+    // width, height はヘッダーから読んだ画像のサイズ。読めなかったときは -1
+    record Entry(Path path, long size, long lastModified, int width, int height) {
+        boolean hasDimensions() {
+            return width > 0 && height > 0;
+        }
+    }
+
+    record Directory(long lastModified, List<Entry> files, List<Path> subdirectories) {
+    }
+
+    private final Map<Path, Directory> directories = new ConcurrentHashMap<>();
+    // 内容が変わるたびに増やす（保存し直す必要があるかの判断に使う）
+    private final AtomicLong version = new AtomicLong();
+
+    Directory directory(Path dir) {
+        return directories.get(dir);
+    }
+
+    void put(Path dir, Directory directory) {
+        var old = directories.put(dir, directory);
+        if (!directory.equals(old)) {
+            version.incrementAndGet();
+        }
+    }
+
+    // dir とその下のフォルダーを全て取り除く
+    void removeTree(Path dir) {
+        if (directories.keySet().removeIf(p -> p.startsWith(dir))) {
+            version.incrementAndGet();
+        }
+    }
+
+    void clear() {
+        directories.clear();
+        version.incrementAndGet();
+    }
+
+    long version() {
+        return version.get();
+    }
+
+    Map<Path, Directory> snapshot() {
+        return new HashMap<>(directories);
+    }
+
+    // root の画像（recursive なら索引にあるサブフォルダーの画像も）
+    List<Entry> entries(Path root, boolean recursive) {
+        var entries = new ArrayList<Entry>();
+        var pending = new ArrayList<Path>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            var directory = directories.get(pending.remove(pending.size() - 1));
+            if (directory == null) continue;
+
+            entries.addAll(directory.files());
+            if (recursive) {
+                pending.addAll(directory.subdirectories());
+            }
+        }
+        return entries;
+    }
+
+    int directoryCount() {
+        return directories.size();
+    }
+}
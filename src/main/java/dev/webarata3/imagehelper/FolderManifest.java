@@ -0,0 +1,118 @@
+package dev.webarata3.imagehelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 最後に開いたフォルダーの索引（FolderIndex）をキャッシュディレクトリに保存しておく
+// 次の起動時には走査を待たずにこの一覧でサムネイルを並べ、変わっていない画像はヘッダーも読み直さない
+// 書式（1 行目はルートのフォルダー、続いてフォルダーごとに D の行とその中身）:
+//   R<TAB>パス
+//   D<TAB>更新日時<TAB>パス
+//   F<TAB>サイズ<TAB>更新日時<TAB>幅<TAB>高さ<TAB>パス
+//   S<TAB>パス（サブフォルダー）
+class FolderManifest {
+    private final Path file;
+
+    FolderManifest(Path file) {
+        this.file = file;
+    }
+
+    static FolderManifest openDefault() {
+        return new FolderManifest(AppDirs.cacheDir().resolve("folder-manifest.tsv"));
+    }
+
+    // root の索引を読み込む。保存されていないか別のフォルダーのものなら空
+    Map<Path, FolderIndex.Directory> load(Path root) {
+        if (!Files.exists(file)) return Map.of();
+
+        var directories = new HashMap<Path, FolderIndex.Directory>();
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            var first = reader.readLine();
+            if (first == null || !first.equals("R\t" + root)) return Map.of();
+
+            Path dir = null;
+            long dirModified = 0;
+            var files = new ArrayList<FolderIndex.Entry>();
+            var subdirectories = new ArrayList<Path>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var fields = line.split("\t");
+                switch (fields[0]) {
+                    case "D" -> {
+                        if (dir != null) {
+                            directories.put(dir, new FolderIndex.Directory(dirModified, List.copyOf(files),
+                                    List.copyOf(subdirectories)));
+                        }
+                        dir = Path.of(line.split("\t", 3)[2]);
+                        dirModified = Long.parseLong(fields[1]);
+                        files.clear();
+                        subdirectories.clear();
+                    }
+                    case "F" -> {
+                        var f = line.split("\t", 6);
+                        files.add(new FolderIndex.Entry(Path.of(f[5]), Long.parseLong(f[1]), Long.parseLong(f[2]),
+                                Integer.parseInt(f[3]), Integer.parseInt(f[4])));
+                    }
+                    case "S" -> subdirectories.add(Path.of(line.split("\t", 2)[1]));
+                    default -> throw new IOException("不明な行です: " + fields[0]);
+                }
+            }
+            if (dir != null) {
+                directories.put(dir, new FolderIndex.Directory(dirModified, List.copyOf(files),
+                        List.copyOf(subdirectories)));
+            }
+        } catch (IOException | RuntimeException e) {
+            // 壊れていれば使わない（走査し直すだけ）
+            return Map.of();
+        }
+        return directories;
+    }
+
+    void save(Path root, Map<Path, FolderIndex.Directory> directories) {
+        try {
+            write(root, directories);
+        } catch (IOException e) {
+            // 保存できなくても次回の起動が遅くなるだけ
+        }
+    }
+
+    private void write(Path root, Map<Path, FolderIndex.Directory> directories) throws IOException {
+        Files.createDirectories(file.getParent());
+        var tmp = Files.createTempFile(file.getParent(), "folder-manifest", ".tmp");
+        try {
+            try (var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write("R\t" + root);
+                out.newLine();
+                for (var e : directories.entrySet()) {
+                    var directory = e.getValue();
+                    out.write("D\t" + directory.lastModified() + "\t" + e.getKey());
+                    out.newLine();
+                    for (var entry : directory.files()) {
+                        out.write("F\t" + entry.size() + "\t" + entry.lastModified() + "\t" + entry.width() + "\t"
+                                + entry.height() + "\t" + entry.path());
+                        out.newLine();
+                    }
+                    for (var subdirectory : directory.subdirectories()) {
+                        out.write("S\t" + subdirectory);
+                        out.newLine();
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package dev.webarata3.imagehelper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+// フォルダー内の画像を列挙する。サブフォルダーも含めるときはフォルダーごとのタスクに分けて並列にたどる
+// 見つかった画像は少しずつ EDT に通知し、最後に全体の一覧を通知する
+// 列挙した内容は FolderIndex に保持し、次の走査では更新日時が変わったフォルダーだけを読み直す
+// フォルダーの更新日時が変わらない上書きは、フォルダー監視で知らされた画像だけを update() で読み直す
+// 索引は走査のたびに（変わっていれば）FolderManifest に保存し、次の起動時に restore() で読み戻す
+class FolderScanner {
+    // 同時に読むフォルダーの数（ディスクへのアクセスが中心なので CPU の数より少なめにする）
+    private static final int PARALLELISM = 4;
+
+    private final FolderIndex index = new FolderIndex();
+    private final ForkJoinPool pool;
+    // pool.invoke() で完了を待つためのスレッド
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "folder-scan");
+        t.setDaemon(true);
+        return t;
+    });
+    // 新しい走査を始めるたびに増やし、古い走査を止める
+    private final AtomicInteger generation = new AtomicInteger();
+    private Path indexedRoot = null;
+    private final FolderManifest manifest;
+    // 最後に保存したときの索引のバージョン（coordinator スレッドからのみ触る）
+    private long savedVersion = -1;
+
+    FolderScanner(FolderManifest manifest) {
+        this.manifest = manifest;
+        var threadCount = new AtomicInteger();
+        pool = new ForkJoinPool(PARALLELISM, p -> {
+            var t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("folder-scanner-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    FolderIndex index() {
+        return index;
+    }
+
+    void cancel() {
+        generation.incrementAndGet();
+    }
+
+    // 保存しておいた root の索引を読み戻し、その画像の一覧を EDT で onRestored に渡す。保存されていなければ何もしない
+    // この後に呼んだ scan() より先に実行されるので、走査では変わっていない画像のヘッダーを読み直さずに済む
+    void restore(Path root, boolean recursive, Consumer<List<FolderIndex.Entry>> onRestored) {
+        coordinator.execute(() -> {
+            var directories = manifest.load(root);
+            if (directories.isEmpty()) return;
+
+            index.clear();
+            indexedRoot = root;
+            directories.forEach(index::put);
+            savedVersion = index.version();
+            var entries = index.entries(root, recursive);
+            SwingUtilities.invokeLater(() -> onRestored.accept(entries));
+        });
+    }
+
+    // root 以下の画像を列挙する。コールバックは全て EDT で呼ぶ
+    // onFound: 見つかった画像（少しずつまとめて何度も呼ぶ）
+    // onComplete: 見つかった全ての画像
+    // revalidate: true なら更新日時が変わっていないフォルダーも読み直す
+    void scan(Path root, boolean recursive, boolean revalidate, Consumer<List<FolderIndex.Entry>> onFound,
+            Consumer<List<FolderIndex.Entry>> onComplete, Consumer<Exception> onError) {
+        var gen = generation.incrementAndGet();
+        coordinator.execute(() -> {
+            if (gen != generation.get()) return;
+            if (!root.equals(indexedRoot)) {
+                // 別のフォルダーを開いたら前の索引は捨てる
+                index.clear();
+                indexedRoot = root;
+            }
+
+            var start = System.nanoTime();
+            var scan = new Scan(gen, recursive, revalidate, onFound);
+            try {
+                pool.invoke(scan.new DirectoryTask(root, true));
+            } catch (ScanException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (gen == generation.get()) onError.accept(e.ioException);
+                });
+                return;
+            }
+            if (gen != generation.get()) return;
+
+            Metrics.recordScan(scan.filesRead.get(), System.nanoTime() - start);
+            if (index.version() != savedVersion) {
+                savedVersion = index.version();
+                manifest.save(root, index.snapshot());
+            }
+            var all = new ArrayList<>(scan.all);
+            SwingUtilities.invokeLater(() -> {
+                if (gen != generation.get()) return;
+                // 通知していない分を先に渡してから全体を渡す
+                scan.flush();
+                onComplete.accept(all);
+            });
+        });
+    }
+
+    // フォルダー監視で知らされた画像だけを読み直して索引に反映し、読み直したものを EDT で onUpdated に渡す
+    // 走査はせず、実行中の走査も止めない（索引の保存は次の走査で行う）
+    void update(Path root, Collection<Path> updated, Collection<Path> deleted,
+            Consumer<List<FolderIndex.Entry>> onUpdated) {
+        var gen = generation.get();
+        coordinator.execute(() -> {
+            if (!root.equals(indexedRoot)) return;
+
+            // フォルダー → そのフォルダーで変わったファイル（削除されたものは null）
+            var changes = new HashMap<Path, HashMap<Path, FolderIndex.Entry>>();
+            for (var path : deleted) {
+                changes.computeIfAbsent(path.getParent(), k -> new HashMap<>()).put(path, null);
+            }
+            var entries = new ArrayList<FolderIndex.Entry>();
+            for (var path : updated) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (!attrs.isRegularFile()) continue;
+                var entry = readEntry(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+                changes.computeIfAbsent(path.getParent(), k -> new HashMap<>()).put(path, entry);
+                entries.add(entry);
+            }
+
+            for (var e : changes.entrySet()) {
+                var directory = index.directory(e.getKey());
+                // まだ走査していないフォルダーは、その走査で読まれる
+                if (directory == null) continue;
+
+                var changed = e.getValue();
+                var files = new ArrayList<FolderIndex.Entry>(directory.files().size() + changed.size());
+                for (var entry : directory.files()) {
+                    if (!changed.containsKey(entry.path())) {
+                        files.add(entry);
+                    }
+                }
+                for (var entry : changed.values()) {
+                    if (entry != null) {
+                        files.add(entry);
+                    }
+                }
+                index.put(e.getKey(), new FolderIndex.Directory(directory.lastModified(), List.copyOf(files),
+                        directory.subdirectories()));
+            }
+
+            if (entries.isEmpty()) return;
+            SwingUtilities.invokeLater(() -> {
+                if (gen == generation.get()) onUpdated.accept(entries);
+            });
+        });
+    }
+
+    private static class ScanException extends RuntimeException {
+        final IOException ioException;
+
+        ScanException(IOException e) {
+            super(e);
+            this.ioException = e;
+        }
+    }
+
+    // 1 回分の走査
+    private class Scan {
+        final int gen;
+        final boolean recursive;
+        final boolean revalidate;
+        final Consumer<List<FolderIndex.Entry>> onFound;
+        final ConcurrentLinkedQueue<FolderIndex.Entry> all = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<FolderIndex.Entry> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        // 属性を読んだファイルの数
+        final AtomicInteger filesRead = new AtomicInteger();
+
+        Scan(int gen, boolean recursive, boolean revalidate, Consumer<List<FolderIndex.Entry>> onFound) {
+            this.gen = gen;
+            this.recursive = recursive;
+            this.revalidate = revalidate;
+            this.onFound = onFound;
+        }
+
+        boolean cancelled() {
+            return gen != generation.get();
+        }
+
+        void publish(List<FolderIndex.Entry> entries) {
+            if (entries.isEmpty()) return;
+            all.addAll(entries);
+            pending.addAll(entries);
+            if (flushScheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::flush);
+            }
+        }
+
+        // EDT で実行する
+        void flush() {
+            flushScheduled.set(false);
+            if (cancelled()) return;
+
+            var batch = new ArrayList<FolderIndex.Entry>();
+            FolderIndex.Entry entry;
+            while ((entry = pending.poll()) != null) {
+                batch.add(entry);
+            }
+            if (!batch.isEmpty()) {
+                onFound.accept(batch);
+            }
+        }
+
+        class DirectoryTask extends RecursiveAction {
+            private final Path dir;
+            private final boolean isRoot;
+
+            DirectoryTask(Path dir, boolean isRoot) {
+                this.dir = dir;
+                this.isRoot = isRoot;
+            }
+
+            @Override
+            protected void compute() {
+                if (cancelled()) return;
+
+                FolderIndex.Directory directory;
+                try {
+                    directory = read(dir);
+                } catch (IOException e) {
+                    // サブフォルダーが読めないときは飛ばす
+                    if (isRoot) throw new ScanException(e);
+                    index.removeTree(dir);
+                    return;
+                }
+                publish(directory.files());
+
+                if (recursive && !directory.subdirectories().isEmpty()) {
+                    var tasks = new ArrayList<DirectoryTask>();
+                    for (var subdirectory : directory.subdirectories()) {
+                        tasks.add(new DirectoryTask(subdirectory, false));
+                    }
+                    invokeAll(tasks);
+                }
+            }
+
+            private FolderIndex.Directory read(Path dir) throws IOException {
+                var lastModified = Files.getLastModifiedTime(dir).toMillis();
+                var cached = index.directory(dir);
+                if (cached != null && cached.lastModified() == lastModified && !revalidate) {
+                    return cached;
+                }
+
+                // 前回の内容（サイズと更新日時が同じならヘッダーを読み直さない）
+                var previous = new HashMap<Path, FolderIndex.Entry>();
+                if (cached != null) {
+                    for (var entry : cached.files()) {
+                        previous.put(entry.path(), entry);
+                    }
+                }
+
+                var files = new ArrayList<FolderIndex.Entry>();
+                var subdirectories = new ArrayList<Path>();
+                try (var stream = Files.newDirectoryStream(dir)) {
+                    for (var path : stream) {
+                        if (cancelled()) break;
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                            if (attrs.isSymbolicLink()) {
+                                // リンク先のフォルダーは（循環することがあるので）たどらないが、リンク先の画像は表示する
+                                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                                if (attrs.isDirectory()) continue;
+                            }
+                        } catch (IOException e) {
+                            // 列挙中に削除されたものやリンク切れ
+                            continue;
+                        }
+                        if (attrs.isDirectory()) {
+                            // 隠しフォルダー（ゴミ箱など）はたどらない
+                            if (!path.getFileName().toString().startsWith(".")) {
+                                subdirectories.add(path);
+                            }
+                            continue;
+                        }
+                        if (!attrs.isRegularFile() || !ThumbnailLoader.isImageFile(path)) continue;
+
+                        var size = attrs.size();
+                        var modified = attrs.lastModifiedTime().toMillis();
+                        var entry = previous.get(path);
+                        if (entry == null || entry.size() != size || entry.lastModified() != modified) {
+                            entry = readEntry(path, size, modified);
+                        }
+                        files.add(entry);
+                        filesRead.incrementAndGet();
+                    }
+                }
+
+                if (cached != null) {
+                    // 無くなったサブフォルダーの索引を消す
+                    var current = new HashSet<>(subdirectories);
+                    for (var subdirectory : cached.subdirectories()) {
+                        if (!current.contains(subdirectory)) {
+                            index.removeTree(subdirectory);
+                        }
+                    }
+                }
+                var directory = new FolderIndex.Directory(lastModified, List.copyOf(files),
+                        List.copyOf(subdirectories));
+                if (!cancelled()) {
+                    index.put(dir, directory);
+                }
+                return directory;
+            }
+        }
+    }
+
+    // ヘッダーだけを読んで画像のサイズを記録する
+    private static FolderIndex.Entry readEntry(Path path, long size, long lastModified) {
+        var width = -1;
+        var height = -1;
+        try {
+            var dimension = Thumbnails.readSize(path);
+            if (dimension != null) {
+                width = dimension.width;
+                height = dimension.height;
+            }
+        } catch (IOException | RuntimeException e) {
+            // サイズがわからなくても一覧には出す（読み込めなければサムネイルの作成時に外す）
+        }
+        return new FolderIndex.Entry(path, size, lastModified, width, height);
+    }
+}
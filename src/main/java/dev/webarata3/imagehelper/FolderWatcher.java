@@ -0,0 +1,148 @@
+package dev.webarata3.imagehelper;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+// WatchService でフォルダーの変更を監視するクラス
+// 短時間に続けて発生したイベントはまとめて EDT で通知する
+class FolderWatcher implements AutoCloseable {
+    // updated: 作成・更新された画像, deleted: 削除された画像, overflow: イベントを取りこぼしたので全体を確認する必要がある
+    record Changes(Path folder, Set<Path> updated, Set<Path> deleted, boolean overflow) {
+    }
+
+    // 最後のイベントからこの時間イベントが無ければ通知する
+    private static final long QUIET_MILLIS = 100;
+    // イベントが続いていても最初のイベントからこの時間が経ったら通知する
+    private static final long MAX_DELAY_MILLIS = 300;
+
+    private final Consumer<Changes> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile WatchKey currentKey;
+    private volatile Path currentFolder;
+
+    FolderWatcher(Consumer<Changes> listener) throws IOException {
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 監視するフォルダーを切り替える。監視できなければ false
+    synchronized boolean watch(Path folder) {
+        if (currentKey != null) {
+            currentKey.cancel();
+            currentKey = null;
+        }
+        currentFolder = folder;
+        try {
+            currentKey = folder.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void run() {
+        var touched = new HashSet<Path>();
+        var overflow = false;
+        Path folder = null;
+        var firstEventAt = 0L;
+        var lastEventAt = 0L;
+
+        try {
+            while (true) {
+                WatchKey key;
+                if (touched.isEmpty() && !overflow) {
+                    // 何も起きていない間はブロックして待つ
+                    key = watchService.take();
+                } else {
+                    var now = System.currentTimeMillis();
+                    var wait = Math.min(lastEventAt + QUIET_MILLIS, firstEventAt + MAX_DELAY_MILLIS) - now;
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        publish(folder, touched, overflow);
+                        touched = new HashSet<>();
+                        overflow = false;
+                        continue;
+                    }
+                }
+
+                var keyFolder = (Path) key.watchable();
+                if (key != currentKey) {
+                    // フォルダー切り替え前のイベントは捨てる
+                    key.pollEvents();
+                    key.reset();
+                    continue;
+                }
+                if (folder != null && !folder.equals(keyFolder)) {
+                    touched.clear();
+                    overflow = false;
+                }
+                folder = keyFolder;
+
+                var now = System.currentTimeMillis();
+                if (touched.isEmpty() && !overflow) {
+                    firstEventAt = now;
+                }
+                lastEventAt = now;
+
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    var path = keyFolder.resolve((Path) event.context());
+                    if (ThumbnailLoader.isImageFile(path)) {
+                        touched.add(path);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 終了
+        }
+    }
+
+    private void publish(Path folder, Set<Path> touched, boolean overflow) {
+        if (folder == null || !folder.equals(currentFolder)) return;
+
+        // 作成後すぐに削除された場合などもあるので、最終的な状態で振り分ける
+        var updated = new HashSet<Path>();
+        var deleted = new HashSet<Path>();
+        for (var path : touched) {
+            if (Files.isRegularFile(path)) {
+                updated.add(path);
+            } else if (!Files.exists(path)) {
+                deleted.add(path);
+            }
+        }
+        var changes = new Changes(folder, updated, deleted, overflow);
+        SwingUtilities.invokeLater(() -> listener.accept(changes));
+    }
+}
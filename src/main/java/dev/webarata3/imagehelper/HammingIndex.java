@@ -0,0 +1,77 @@
+package dev.webarata3.imagehelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 64 ビットのハッシュを、ハミング距離が maxDistance 以内のものについて検索する（multi-index hashing）
+// ハッシュを maxDistance + 1 個のブロックに分けると、距離が maxDistance 以内なら少なくとも 1 つのブロックは完全に一致する
+// そこでブロックごとの値で候補を引き、距離を確かめる
+class HammingIndex {
+    private final int maxDistance;
+    private final int[] blockShifts;
+    private final long[] blockMasks;
+    // ブロックごとの、ブロックの値 → 登録番号
+    private final List<Map<Long, List<Integer>>> tables = new ArrayList<>();
+    private final List<Long> hashes = new ArrayList<>();
+
+    HammingIndex(int maxDistance) {
+        this.maxDistance = maxDistance;
+        var blocks = maxDistance + 1;
+        blockShifts = new int[blocks];
+        blockMasks = new long[blocks];
+        var shift = 0;
+        for (var i = 0; i < blocks; i++) {
+            // 64 ビットをなるべく均等に分ける
+            var bits = 64 / blocks + (i < 64 % blocks ? 1 : 0);
+            blockShifts[i] = shift;
+            blockMasks[i] = bits == 64 ? -1L : (1L << bits) - 1;
+            shift += bits;
+            tables.add(new HashMap<>());
+        }
+    }
+
+    // 登録番号（0 から順に振る）を返す
+    int add(long hash) {
+        var id = hashes.size();
+        hashes.add(hash);
+        for (var i = 0; i < tables.size(); i++) {
+            tables.get(i).computeIfAbsent(block(hash, i), k -> new ArrayList<>(1)).add(id);
+        }
+        return id;
+    }
+
+    // 距離が maxDistance 以内の登録番号（自分自身を含む）
+    List<Integer> search(long hash) {
+        var found = new ArrayList<Integer>();
+        for (var i = 0; i < tables.size(); i++) {
+            var candidates = tables.get(i).get(block(hash, i));
+            if (candidates == null) continue;
+            for (var id : candidates) {
+                var candidate = hashes.get(id);
+                // 前のブロックでも一致しているものは、そちらで数えている
+                if (!matchesEarlierBlock(hash, candidate, i)
+                        && ImageHashes.distance(hash, candidate) <= maxDistance) {
+                    found.add(id);
+                }
+            }
+        }
+        return found;
+    }
+
+    private boolean matchesEarlierBlock(long a, long b, int index) {
+        for (var i = 0; i < index; i++) {
+            if (block(a, i) == block(b, i)) return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return hashes.size();
+    }
+
+    private long block(long hash, int index) {
+        return (hash >>> blockShifts[index]) & blockMasks[index];
+    }
+}
@@ -0,0 +1,348 @@
+package dev.webarata3.imagehelper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// 表示中のフォルダーの画像の一覧（名前・ファイルサイズ・更新日時・画像の大きさ・形式）
+// 並び順ごとの一覧は一度作ったら保持しておき、追加・削除のときは差分だけを反映する
+// 絞り込みは並び順の一覧をたどるだけなので、ファイルを読み直したりセルを作り直したりしない
+// EDT からのみ使う
+class ImageCatalog {
+    enum SortKey {
+        NAME("名前順"), PIXELS("大きさ順"), FILE_SIZE("ファイルサイズ順"), MODIFIED("更新日時順");
+
+        private final String label;
+
+        SortKey(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // わからない値は -1
+    record Item(Path path, String name, String lowerName, String format, long size, long lastModified, int width,
+            int height) {
+        long pixels() {
+            return width > 0 && height > 0 ? (long) width * height : -1;
+        }
+    }
+
+    // ファイル名での絞り込み。* か ? を含めばワイルドカード、それ以外は大文字小文字を区別しない部分一致
+    static final class NameFilter {
+        private final String lowerText;
+        private final Pattern glob;
+        // 一致する名前に必ず含まれる文字列（ワイルドカードなら一番長い固定部分）。空なら絞り込めない
+        private final String literal;
+
+        private NameFilter(String text) {
+            this.lowerText = text.toLowerCase(Locale.ROOT);
+            if (text.indexOf('*') >= 0 || text.indexOf('?') >= 0) {
+                this.glob = globPattern(lowerText);
+                this.literal = longestLiteral(lowerText);
+            } else {
+                this.glob = null;
+                this.literal = lowerText;
+            }
+        }
+
+        // 空なら null（絞り込まない）
+        static NameFilter of(String text) {
+            var trimmed = text.strip();
+            return trimmed.isEmpty() ? null : new NameFilter(trimmed);
+        }
+
+        boolean matches(Item item) {
+            return glob != null ? glob.matcher(item.lowerName()).matches() : item.lowerName().contains(lowerText);
+        }
+
+        // this で絞り込んだ結果が previous で絞り込んだ結果に必ず含まれるか（文字を打ち足したとき）
+        boolean narrows(NameFilter previous) {
+            if (previous == null) return true;
+            return glob == null && previous.glob == null && lowerText.contains(previous.lowerText);
+        }
+
+        private static String longestLiteral(String lowerText) {
+            var longest = "";
+            for (var part : lowerText.split("[*?]")) {
+                if (part.length() > longest.length()) {
+                    longest = part;
+                }
+            }
+            return longest;
+        }
+
+        // 小文字にした名前と比べるので大文字小文字を区別しないフラグは付けない（付けると遅い）
+        private static Pattern globPattern(String lowerText) {
+            var regex = new StringBuilder();
+            var literal = new StringBuilder();
+            for (var c : lowerText.toCharArray()) {
+                if (c != '*' && c != '?') {
+                    literal.append(c);
+                    continue;
+                }
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            }
+            if (!literal.isEmpty()) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    private static final Comparator<Item> BY_NAME = Comparator.comparing(Item::lowerName)
+            .thenComparing(Item::path);
+
+    // これ以下の件数の追加は併合せずに挿入する
+    private static final int SMALL_MERGE = 64;
+    // 前回の結果がこれ以下なら、NameIndex を検索するよりも前回の結果を 1 つずつ確かめるほうが速い
+    private static final int NARROW_LIMIT = 4096;
+
+    private final Map<Path, Item> items = new HashMap<>();
+    // 作成済みの並び順
+    private final Map<SortKey, List<Item>> orders = new EnumMap<>(SortKey.class);
+    // 並び順ごとの小文字の名前をつなげたもの（部分一致の検索用）。内容が変わったら作り直す
+    private final Map<SortKey, NameIndex> nameIndexes = new EnumMap<>(SortKey.class);
+    // 内容が変わるたびに増やす
+    private int version = 0;
+
+    // 前回の絞り込みの結果（続けて文字を打ったときは、これをさらに絞り込む）
+    private int lastVersion = -1;
+    private SortKey lastKey;
+    private NameFilter lastFilter;
+    private List<Item> lastResult;
+
+    static Item item(FolderIndex.Entry entry) {
+        return item(entry.path(), entry.size(), entry.lastModified(), entry.width(), entry.height());
+    }
+
+    static Item item(Path path, long size, long lastModified, int width, int height) {
+        var name = path.getFileName().toString();
+        var dot = name.lastIndexOf('.');
+        var format = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return new Item(path, name, name.toLowerCase(Locale.ROOT), format, size, lastModified, width, height);
+    }
+
+    boolean contains(Path path) {
+        return items.containsKey(path);
+    }
+
+    // 無ければ null
+    Item get(Path path) {
+        return items.get(path);
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    List<Path> paths() {
+        return new ArrayList<>(items.keySet());
+    }
+
+    // 追加する。同じパスがあれば置き換える。内容が変わったら true
+    boolean putAll(Collection<Item> added) {
+        var replaced = new HashSet<Path>();
+        // 同じパスが続けて来たら最後のものだけを使う
+        var inserted = new LinkedHashMap<Path, Item>();
+        for (var item : added) {
+            var old = items.put(item.path(), item);
+            if (item.equals(old)) continue;
+            if (old != null) {
+                replaced.add(item.path());
+            }
+            inserted.put(item.path(), item);
+        }
+        if (inserted.isEmpty()) return false;
+
+        version++;
+        nameIndexes.clear();
+        for (var e : orders.entrySet()) {
+            var order = e.getValue();
+            if (!replaced.isEmpty()) {
+                order.removeIf(item -> replaced.contains(item.path()));
+            }
+            e.setValue(merge(order, inserted.values(), comparator(e.getKey())));
+        }
+        return true;
+    }
+
+    // 取り除く。内容が変わったら true
+    boolean removeAll(Collection<Path> paths) {
+        var removed = new HashSet<Path>();
+        for (var path : paths) {
+            if (items.remove(path) != null) {
+                removed.add(path);
+            }
+        }
+        if (removed.isEmpty()) return false;
+
+        version++;
+        nameIndexes.clear();
+        for (var order : orders.values()) {
+            order.removeIf(item -> removed.contains(item.path()));
+        }
+        return true;
+    }
+
+    void clear() {
+        items.clear();
+        orders.clear();
+        nameIndexes.clear();
+        version++;
+    }
+
+    // key の順に並べ、filter に合うものだけを返す（filter が null なら全て）
+    List<Path> view(SortKey key, NameFilter filter) {
+        var start = System.nanoTime();
+        List<Item> result;
+        if (filter == null) {
+            result = order(key);
+        } else if (version == lastVersion && key == lastKey && filter.narrows(lastFilter)
+                && lastResult.size() <= NARROW_LIMIT) {
+            result = filter(lastResult, filter);
+        } else if (!filter.literal.isEmpty()) {
+            // 固定部分を含む名前をまとめて探し、ワイルドカードならその中を正規表現で確かめる
+            var candidates = nameIndex(key).search(filter.literal);
+            result = filter.glob == null ? candidates : filter(candidates, filter);
+        } else {
+            result = filter(order(key), filter);
+        }
+        Metrics.FILTER.recordSince(start);
+
+        lastVersion = version;
+        lastKey = key;
+        lastFilter = filter;
+        lastResult = result;
+
+        var paths = new ArrayList<Path>(result.size());
+        for (var item : result) {
+            paths.add(item.path());
+        }
+        return paths;
+    }
+
+    private static List<Item> filter(List<Item> source, NameFilter filter) {
+        var result = new ArrayList<Item>(Math.min(source.size(), 1024));
+        for (var item : source) {
+            if (filter.matches(item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    private NameIndex nameIndex(SortKey key) {
+        return nameIndexes.computeIfAbsent(key, k -> new NameIndex(order(k)));
+    }
+
+    private List<Item> order(SortKey key) {
+        var order = orders.get(key);
+        if (order == null) {
+            order = new ArrayList<>(items.values());
+            order.sort(comparator(key));
+            orders.put(key, order);
+        }
+        return order;
+    }
+
+    private static Comparator<Item> comparator(SortKey key) {
+        return switch (key) {
+            case NAME -> BY_NAME;
+            // 大きい順・新しい順。わからないものは最後
+            case PIXELS -> Comparator.comparingLong(Item::pixels).reversed().thenComparing(BY_NAME);
+            case FILE_SIZE -> Comparator.comparingLong(Item::size).reversed().thenComparing(BY_NAME);
+            case MODIFIED -> Comparator.comparingLong(Item::lastModified).reversed().thenComparing(BY_NAME);
+        };
+    }
+
+    // 並べ替え済みの order に added を併合する（全体を並べ替え直すより速い）
+    private static List<Item> merge(List<Item> order, Collection<Item> added, Comparator<Item> comparator) {
+        var sorted = new ArrayList<>(added);
+        sorted.sort(comparator);
+        if (sorted.size() <= SMALL_MERGE) {
+            // 監視で見つかった数枚なら二分探索で挿入するだけ
+            for (var item : sorted) {
+                var i = Collections.binarySearch(order, item, comparator);
+                order.add(i < 0 ? -i - 1 : i, item);
+            }
+            return order;
+        }
+        var merged = new ArrayList<Item>(order.size() + sorted.size());
+        var i = 0;
+        var j = 0;
+        while (i < order.size() && j < sorted.size()) {
+            if (comparator.compare(order.get(i), sorted.get(j)) <= 0) {
+                merged.add(order.get(i++));
+            } else {
+                merged.add(sorted.get(j++));
+            }
+        }
+        merged.addAll(order.subList(i, order.size()));
+        merged.addAll(sorted.subList(j, sorted.size()));
+        return merged;
+    }
+
+    // 並び順どおりに小文字の名前を区切り文字でつなげた 1 つの文字列
+    // 項目ごとに文字列をたどるより、つなげた文字列を indexOf で先へ進むほうがずっと速い
+    private static final class NameIndex {
+        // ファイル名に使えない文字なので、検索語に含まれなければ名前をまたいで一致しない
+        private static final char SEPARATOR = '/';
+
+        private final List<Item> order;
+        private final String joined;
+        // 各名前の joined での開始位置
+        private final int[] starts;
+
+        NameIndex(List<Item> order) {
+            this.order = order;
+            starts = new int[order.size()];
+            var sb = new StringBuilder(order.size() * 24);
+            for (var i = 0; i < order.size(); i++) {
+                starts[i] = sb.length();
+                sb.append(order.get(i).lowerName()).append(SEPARATOR);
+            }
+            joined = sb.toString();
+        }
+
+        List<Item> search(String lowerText) {
+            var result = new ArrayList<Item>();
+            if (lowerText.indexOf(SEPARATOR) >= 0) return result;
+
+            var from = 0;
+            var i = 0;
+            while (true) {
+                var pos = joined.indexOf(lowerText, from);
+                if (pos < 0) break;
+                // 一致は前へしか進まないので、前回の位置から順にたどる
+                while (i + 1 < starts.length && starts[i + 1] <= pos) {
+                    i++;
+                }
+                result.add(order.get(i));
+                // 同じ名前の中の 2 つ目以降の一致は飛ばす
+                i++;
+                if (i >= starts.length) break;
+                from = starts[i];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// 2 枚の画像を画素ごとに比べ、違う画素のマスクと変わった範囲の矩形を求める
+// 行の帯に分けて fork/join で並列に比べ、画素は getRGB を使わずに DataBuffer の配列から直接読む
+// 大きさが違うときは左上をそろえて重なる範囲だけを比べる
+class ImageDiff {
+    // mask: 違う画素が 1 の 1 ビットの画像（重ねて描けるよう 1 は半透明の赤）
+    // overview: mask を縮小したもの。縮小前のどれか 1 画素でも違えば 1 にするので細い線も消えない
+    // overviewScale: overview の 1 画素が元の何画素四方か
+    record Result(int width, int height, long changedPixels, BufferedImage mask, BufferedImage overview,
+            int overviewScale, List<Rectangle> regions) {
+        double changedRatio() {
+            return width == 0 || height == 0 ? 0 : (double) changedPixels / ((long) width * height);
+        }
+    }
+
+    // 変わった範囲はこの大きさのタイル単位でつなげてまとめる
+    private static final int TILE = 16;
+    // overview の長辺の上限
+    private static final int MAX_OVERVIEW_SIZE = 2048;
+    // これ以下の行数になるまで帯を分割する
+    private static final int LEAF_ROWS = 64;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    private static final IndexColorModel MASK_COLORS = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+            new byte[] { 0, 0 }, new byte[] { 0, 0 }, new byte[] { 0, (byte) 160 });
+
+    private ImageDiff() {
+    }
+
+    // threshold: どれかのチャンネルの差がこれより大きい画素を違うとみなす（0 なら少しでも違えば）
+    static Result compute(BufferedImage before, BufferedImage after, int threshold) {
+        var start = System.nanoTime();
+        var width = Math.min(before.getWidth(), after.getWidth());
+        var height = Math.min(before.getHeight(), after.getHeight());
+
+        // 同じ形式ならそのまま比べ、違えば両方を同じ形式にそろえる
+        if (!isDirect(before) || !isDirect(after) || before.getType() != after.getType()) {
+            before = toIntArgb(before);
+            after = toIntArgb(after);
+        }
+
+        var overviewScale = 1;
+        while (Math.max(width, height) / overviewScale > MAX_OVERVIEW_SIZE) {
+            overviewScale *= 2;
+        }
+        var mask = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_BYTE_BINARY,
+                MASK_COLORS);
+        var overview = new BufferedImage(Math.max(1, ceilDiv(width, overviewScale)),
+                Math.max(1, ceilDiv(height, overviewScale)), BufferedImage.TYPE_BYTE_BINARY, MASK_COLORS);
+
+        var job = new Job(before, after, width, height, threshold, mask, overview, overviewScale);
+        // 帯の境目をタイルと overview の行にそろえると、帯ごとに書き込む範囲が重ならない
+        POOL.invoke(new BandTask(job, 0, ceilDiv(height, job.bandUnit)));
+
+        var changed = 0L;
+        for (var count : job.tileCounts) {
+            changed += count;
+        }
+        var regions = job.regions();
+        Metrics.DIFF.recordSince(start);
+        return new Result(width, height, changed, mask, overview, overviewScale, regions);
+    }
+
+    private static boolean isDirect(BufferedImage image) {
+        return switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                    BufferedImage.TYPE_4BYTE_ABGR -> image.getRaster().getParent() == null;
+            default -> false;
+        };
+    }
+
+    private static BufferedImage toIntArgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null) return image;
+
+        var converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        var g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static final class Job {
+        final int width;
+        final int height;
+        final int threshold;
+        final int[] beforeInts;
+        final int[] afterInts;
+        final byte[] beforeBytes;
+        final byte[] afterBytes;
+        // 1 画素のバイト数（byte の形式のとき）
+        final int pixelBytes;
+        // int の形式で比べるビット（TYPE_INT_RGB の上位 8 ビットは使われない）
+        final int pixelMask;
+        final int beforeStride;
+        final int afterStride;
+        final byte[] mask;
+        final int maskStride;
+        final byte[] overview;
+        final int overviewStride;
+        final int overviewScale;
+        // 帯の行数の単位（タイルと overview の 1 行のどちらにも割り切れる）
+        final int bandUnit;
+
+        final int tileColumns;
+        final int tileRows;
+        // タイルごとの違う画素の数と、違う画素を囲む範囲
+        final int[] tileCounts;
+        final int[] tileMinX;
+        final int[] tileMinY;
+        final int[] tileMaxX;
+        final int[] tileMaxY;
+
+        Job(BufferedImage before, BufferedImage after, int width, int height, int threshold, BufferedImage mask,
+                BufferedImage overview, int overviewScale) {
+            this.width = width;
+            this.height = height;
+            this.threshold = threshold;
+            if (before.getRaster().getDataBuffer() instanceof DataBufferInt beforeBuffer) {
+                beforeInts = beforeBuffer.getData();
+                afterInts = ((DataBufferInt) after.getRaster().getDataBuffer()).getData();
+                beforeBytes = null;
+                afterBytes = null;
+                pixelBytes = 1;
+                pixelMask = before.getType() == BufferedImage.TYPE_INT_RGB ? 0xffffff : -1;
+            } else {
+                beforeInts = null;
+                afterInts = null;
+                beforeBytes = ((DataBufferByte) before.getRaster().getDataBuffer()).getData();
+                afterBytes = ((DataBufferByte) after.getRaster().getDataBuffer()).getData();
+                pixelBytes = before.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+                pixelMask = -1;
+            }
+            beforeStride = before.getWidth() * pixelBytes;
+            afterStride = after.getWidth() * pixelBytes;
+            this.mask = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+            maskStride = ceilDiv(mask.getWidth(), 8);
+            this.overview = ((DataBufferByte) overview.getRaster().getDataBuffer()).getData();
+            overviewStride = ceilDiv(overview.getWidth(), 8);
+            this.overviewScale = overviewScale;
+            bandUnit = Math.max(TILE, overviewScale);
+
+            tileColumns = Math.max(1, ceilDiv(width, TILE));
+            tileRows = Math.max(1, ceilDiv(height, TILE));
+            var tiles = tileColumns * tileRows;
+            tileCounts = new int[tiles];
+            tileMinX = new int[tiles];
+            tileMinY = new int[tiles];
+            tileMaxX = new int[tiles];
+            tileMaxY = new int[tiles];
+            Arrays.fill(tileMinX, Integer.MAX_VALUE);
+            Arrays.fill(tileMinY, Integer.MAX_VALUE);
+        }
+
+        // fromY から toY の手前までの行を比べる
+        // 同じ画素が続く部分は Arrays.mismatch で読み飛ばし（まとめて比べるので速い）、違う画素だけを調べる
+        void compareRows(int fromY, int toY) {
+            for (var y = fromY; y < toY; y++) {
+                var tileRow = (y / TILE) * tileColumns;
+                var maskRow = y * maskStride;
+                var overviewRow = (y / overviewScale) * overviewStride;
+                var b = y * beforeStride;
+                var a = y * afterStride;
+                var length = width * pixelBytes;
+                var offset = 0;
+                while (offset < length) {
+                    var mismatch = beforeInts != null
+                            ? Arrays.mismatch(beforeInts, b + offset, b + length, afterInts, a + offset, a + length)
+                            : Arrays.mismatch(beforeBytes, b + offset, b + length, afterBytes, a + offset, a + length);
+                    if (mismatch < 0) break;
+
+                    var x = (offset + mismatch) / pixelBytes;
+                    if (pixelDiffers(b + x * pixelBytes, a + x * pixelBytes)) {
+                        mark(x, y, tileRow, maskRow, overviewRow);
+                    }
+                    offset = (x + 1) * pixelBytes;
+                }
+            }
+        }
+
+        // 配列の b と a の位置の画素が threshold より違うか
+        private boolean pixelDiffers(int b, int a) {
+            if (beforeInts != null) {
+                var p = beforeInts[b] & pixelMask;
+                var q = afterInts[a] & pixelMask;
+                if (p == q) return false;
+                for (var shift = 0; shift < 32; shift += 8) {
+                    if (Math.abs(((p >>> shift) & 0xff) - ((q >>> shift) & 0xff)) > threshold) return true;
+                }
+                return false;
+            }
+            for (var i = 0; i < pixelBytes; i++) {
+                if (Math.abs((beforeBytes[b + i] & 0xff) - (afterBytes[a + i] & 0xff)) > threshold) return true;
+            }
+            return false;
+        }
+
+        private void mark(int x, int y, int tileRow, int maskRow, int overviewRow) {
+            mask[maskRow + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+            var ox = x / overviewScale;
+            overview[overviewRow + (ox >> 3)] |= (byte) (0x80 >> (ox & 7));
+
+            var tile = tileRow + x / TILE;
+            tileCounts[tile]++;
+            tileMinX[tile] = Math.min(tileMinX[tile], x);
+            tileMinY[tile] = Math.min(tileMinY[tile], y);
+            tileMaxX[tile] = Math.max(tileMaxX[tile], x);
+            tileMaxY[tile] = Math.max(tileMaxY[tile], y);
+        }
+
+        // 違う画素を含むタイルを上下左右斜めにつなげ、つながったものごとに囲む矩形を返す（大きい順）
+        List<Rectangle> regions() {
+            var visited = new boolean[tileCounts.length];
+            var regions = new ArrayList<Rectangle>();
+            var queue = new ArrayDeque<Integer>();
+            for (var start = 0; start < tileCounts.length; start++) {
+                if (tileCounts[start] == 0 || visited[start]) continue;
+
+                int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+                visited[start] = true;
+                queue.add(start);
+                while (!queue.isEmpty()) {
+                    var tile = queue.poll();
+                    minX = Math.min(minX, tileMinX[tile]);
+                    minY = Math.min(minY, tileMinY[tile]);
+                    maxX = Math.max(maxX, tileMaxX[tile]);
+                    maxY = Math.max(maxY, tileMaxY[tile]);
+
+                    var column = tile % tileColumns;
+                    var row = tile / tileColumns;
+                    for (var dy = -1; dy <= 1; dy++) {
+                        for (var dx = -1; dx <= 1; dx++) {
+                            var c = column + dx;
+                            var r = row + dy;
+                            if (c < 0 || r < 0 || c >= tileColumns || r >= tileRows) continue;
+                            var neighbor = r * tileColumns + c;
+                            if (tileCounts[neighbor] == 0 || visited[neighbor]) continue;
+                            visited[neighbor] = true;
+                            queue.add(neighbor);
+                        }
+                    }
+                }
+                regions.add(new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+            }
+            regions.sort((r1, r2) -> Long.compare((long) r2.width * r2.height, (long) r1.width * r1.height));
+            return regions;
+        }
+    }
+
+    // bandUnit 行ずつの帯の from から to の手前までを比べる
+    private static final class BandTask extends RecursiveAction {
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        BandTask(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((to - from) * job.bandUnit > LEAF_ROWS && to - from > 1) {
+                var middle = (from + to) >>> 1;
+                invokeAll(new BandTask(job, from, middle), new BandTask(job, middle, to));
+                return;
+            }
+            job.compareRows(from * job.bandUnit, Math.min(job.height, to * job.bandUnit));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.BasicStroke;
+import java.awt.BorderLayout;
+import java.awt.CardLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+// 2 枚の画像（同じ範囲の変更前と変更後のキャプチャーなど）を比べるウィンドウ
+// 違う画素を赤く重ね、変わった範囲を枠で囲む。Space で変更前と変更後を切り替える
+class ImageDiffWindow extends JDialog {
+    private static final Color REGION_COLOR = new Color(255, 160, 0);
+    private static final Color SELECTED_REGION_COLOR = new Color(0, 160, 255);
+    // 小さな範囲も見えるように枠を広げる画面上の画素数
+    private static final int REGION_PADDING = 2;
+
+    // 2 枚を並行してデコードする
+    private static final ExecutorService DECODER = Executors.newFixedThreadPool(2, r -> {
+        var t = new Thread(r, "image-diff-decoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private record Loaded(BufferedImage before, BufferedImage after, ImageDiff.Result diff) {
+    }
+
+    private final JLabel summaryLabel = new JLabel("読み込み中...");
+    private final JPanel viewPanel = new JPanel(new CardLayout());
+    private final DefaultListModel<Rectangle> regionModel = new DefaultListModel<>();
+    private final JList<Rectangle> regionList = new JList<>(regionModel);
+    private final JCheckBox overlayCheckBox = new JCheckBox("差分を重ねる", true);
+    private final JToggleButton beforeButton = new JToggleButton("変更前を表示");
+    private ImageDiff.Result result;
+
+    // threshold: ImageDiff.compute() に渡す、違うとみなす色の差
+    ImageDiffWindow(JFrame owner, Path before, Path after, int threshold) {
+        super(owner, String.format("比較: %s → %s", before.getFileName(), after.getFileName()), false);
+
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        overlayCheckBox.addActionListener(e -> viewPanel.repaint());
+        beforeButton.addActionListener(e -> showBefore(beforeButton.isSelected()));
+        var controls = new JPanel(new BorderLayout());
+        controls.add(summaryLabel, BorderLayout.CENTER);
+        var buttons = new JPanel();
+        buttons.add(overlayCheckBox);
+        buttons.add(beforeButton);
+        controls.add(buttons, BorderLayout.EAST);
+
+        regionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        regionList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                var r = (Rectangle) value;
+                var text = String.format("(%d, %d) %d × %d", r.x, r.y, r.width, r.height);
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        regionList.addListSelectionListener(e -> viewPanel.repaint());
+        var regionScroll = new JScrollPane(regionList);
+        regionScroll.setPreferredSize(new Dimension(200, 400));
+
+        getContentPane().add(controls, BorderLayout.NORTH);
+        getContentPane().add(viewPanel, BorderLayout.CENTER);
+        getContentPane().add(regionScroll, BorderLayout.EAST);
+
+        var rootPane = getRootPane();
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0),
+                "toggle");
+        rootPane.getActionMap().put("toggle", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                beforeButton.doClick();
+            }
+        });
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+                "close");
+        rootPane.getActionMap().put("close", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                dispose();
+            }
+        });
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(1100, 700);
+        setLocationRelativeTo(owner);
+
+        start(before, after, threshold);
+    }
+
+    private void start(Path before, Path after, int threshold) {
+        var beforeImage = CompletableFuture.supplyAsync(() -> read(before), DECODER);
+        var afterImage = CompletableFuture.supplyAsync(() -> read(after), DECODER);
+        // 差分の計算は ImageDiff の fork/join プールで行う
+        var loading = beforeImage.thenCombine(afterImage,
+                (b, a) -> new Loaded(b, a, ImageDiff.compute(b, a, threshold)));
+        loading.whenComplete((loaded, ex) -> SwingUtilities.invokeLater(() -> {
+            if (!isDisplayable()) return;
+            if (ex != null) {
+                var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                summaryLabel.setText("比較できませんでした: " + cause.getMessage());
+                return;
+            }
+            show(loaded.before(), loaded.after(), loaded.diff());
+        }));
+    }
+
+    private static BufferedImage read(Path path) {
+        try {
+            var start = System.nanoTime();
+            var image = ImageIO.read(path.toFile());
+            if (image == null) throw new IOException("対応していない形式です: " + path.getFileName());
+            Metrics.DIFF_DECODE.recordSince(start);
+            return image;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void show(BufferedImage before, BufferedImage after, ImageDiff.Result result) {
+        this.result = result;
+        var summary = new StringBuilder(String.format("変更 %,d 画素（%.2f%%）、%d か所", result.changedPixels(),
+                result.changedRatio() * 100, result.regions().size()));
+        if (before.getWidth() != after.getWidth() || before.getHeight() != after.getHeight()) {
+            summary.append(String.format("　大きさが違うので左上の %d × %d だけを比べました", result.width(),
+                    result.height()));
+        }
+        summaryLabel.setText(summary.toString());
+        regionModel.addAll(result.regions());
+
+        viewPanel.add(new DiffView(after), "after");
+        viewPanel.add(new DiffView(before), "before");
+        showBefore(beforeButton.isSelected());
+    }
+
+    private void showBefore(boolean before) {
+        ((CardLayout) viewPanel.getLayout()).show(viewPanel, before ? "before" : "after");
+    }
+
+    // 画像に差分のマスクと変わった範囲の枠を重ねて表示する
+    private class DiffView extends ScaledImageView {
+        DiffView(BufferedImage image) {
+            super(image);
+        }
+
+        @Override
+        protected void paintOverlay(Graphics2D g, int x, int y, int width, int height) {
+            if (result == null || !overlayCheckBox.isSelected()) return;
+
+            var scale = (double) width / getImage().getWidth();
+            // 縮小したマスク（どれか 1 画素でも違えば塗られている）をそのまま引き伸ばす
+            var overview = result.overview();
+            var overviewScale = result.overviewScale() * scale;
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.drawImage(overview, x, y, (int) Math.ceil(overview.getWidth() * overviewScale),
+                    (int) Math.ceil(overview.getHeight() * overviewScale), null);
+
+            var selected = regionList.getSelectedValue();
+            g.setStroke(new BasicStroke(1));
+            for (var region : result.regions()) {
+                if (region == selected) continue;
+                g.setColor(REGION_COLOR);
+                drawRegion(g, region, x, y, scale);
+            }
+            if (selected != null) {
+                g.setStroke(new BasicStroke(2));
+                g.setColor(SELECTED_REGION_COLOR);
+                drawRegion(g, selected, x, y, scale);
+            }
+        }
+
+        private void drawRegion(Graphics2D g, Rectangle region, int x, int y, double scale) {
+            var left = x + (int) Math.floor(region.x * scale) - REGION_PADDING;
+            var top = y + (int) Math.floor(region.y * scale) - REGION_PADDING;
+            var right = x + (int) Math.ceil((region.x + region.width) * scale) + REGION_PADDING;
+            var bottom = y + (int) Math.ceil((region.y + region.height) * scale) + REGION_PADDING;
+            g.drawRect(left, top, right - left, bottom - top);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package dev.webarata3.imagehelper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+// 画像ごとのハッシュをキャッシュディレクトリに保存しておく
+// 1 行に 1 件ずつ追記し、同じパスは後の行を優先する。サイズか更新日時が変わっていれば使わない
+// 書式: サイズ<TAB>更新日時<TAB>内容のハッシュ<TAB>dHash<TAB>パス
+// ファイルは大きくなるので、EDT を止めないようにバックグラウンドで読み、使うときに完了を待つ
+class ImageHashStore {
+    record Entry(long size, long lastModified, String contentHash, long dHash) {
+    }
+
+    // 古い行がこれより多くなったら開くときに書き直す
+    private static final int COMPACT_THRESHOLD = 10_000;
+
+    private final Path file;
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private BufferedWriter writer;
+    // close() の後は追記しない
+    private boolean closed = false;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    ImageHashStore(Path file) {
+        this.file = file;
+        var loader = new Thread(() -> {
+            try {
+                load();
+            } finally {
+                loaded.countDown();
+            }
+        }, "image-hash-store-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    static ImageHashStore openDefault() {
+        return new ImageHashStore(AppDirs.cacheDir().resolve("image-hashes.tsv"));
+    }
+
+    Entry get(Path path, long size, long lastModified) {
+        awaitLoad();
+        synchronized (this) {
+            var entry = entries.get(path);
+            if (entry == null || entry.size() != size || entry.lastModified() != lastModified) return null;
+            return entry;
+        }
+    }
+
+    void put(Path path, Entry entry) {
+        awaitLoad();
+        synchronized (this) {
+            entries.put(path, entry);
+            append(path, entry);
+        }
+    }
+
+    private void append(Path path, Entry entry) {
+        if (closed) return;
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+            }
+            writer.write(format(path, entry));
+            writer.newLine();
+        } catch (IOException e) {
+            // 保存できなくても次回計算し直すだけ
+            closeWriter();
+        }
+    }
+
+    // 追記した内容をファイルに書き出す
+    synchronized void flush() {
+        if (writer == null) return;
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            closeWriter();
+        }
+    }
+
+    int size() {
+        awaitLoad();
+        synchronized (this) {
+            return entries.size();
+        }
+    }
+
+    // 追記した内容を書き出してファイルを閉じる（終了時）
+    synchronized void close() {
+        flush();
+        closeWriter();
+        closed = true;
+    }
+
+    private void awaitLoad() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeWriter() {
+        try {
+            if (writer != null) writer.close();
+        } catch (IOException e) {
+        }
+        writer = null;
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(file)) return;
+
+        var lines = 0;
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                var fields = line.split("\t", 5);
+                if (fields.length != 5) continue;
+                try {
+                    entries.put(Path.of(fields[4]), new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            fields[2], Long.parseUnsignedLong(fields[3], 16)));
+                } catch (RuntimeException e) {
+                    // 書き込み途中で終了したときの壊れた行など
+                }
+            }
+        } catch (IOException e) {
+            entries.clear();
+            return;
+        }
+
+        if (lines - entries.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        try {
+            var tmp = Files.createTempFile(file.getParent(), "image-hashes", ".tmp");
+            try {
+                try (var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (var e : entries.entrySet()) {
+                        out.write(format(e.getKey(), e.getValue()));
+                        out.newLine();
+                    }
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            // 書き直せなくても追記は続けられる
+        }
+    }
+
+    private static String format(Path path, Entry entry) {
+        return entry.size() + "\t" + entry.lastModified() + "\t" + entry.contentHash() + "\t"
+                + Long.toHexString(entry.dHash()) + "\t" + path;
+    }
+}
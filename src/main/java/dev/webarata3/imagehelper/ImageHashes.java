@@ -0,0 +1,79 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// 重複検出に使うハッシュ
+class ImageHashes {
+    // dHash の大きさ（横に 1 画素多く取って隣との明るさを比べる）
+    private static final int DHASH_WIDTH = 9;
+    private static final int DHASH_HEIGHT = 8;
+
+    private ImageHashes() {
+    }
+
+    // ファイルの内容の SHA-256。内容が完全に同じファイルを見つけるのに使う
+    static String contentHash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (var input = Files.newInputStream(path)) {
+            var buffer = new byte[64 * 1024];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // 見た目が似ている画像ほどハミング距離が小さくなる 64 ビットのハッシュ（dHash）
+    // 9x8 に平均化したグレースケール画像で、各行の隣り合う画素の明るさを比べる
+    // サムネイルから計算すれば十分なので、元画像を読み直す必要はない
+    static long dHash(BufferedImage image) {
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        var gray = new double[DHASH_HEIGHT][DHASH_WIDTH];
+        for (var gy = 0; gy < DHASH_HEIGHT; gy++) {
+            var y0 = gy * height / DHASH_HEIGHT;
+            var y1 = Math.max(y0 + 1, (gy + 1) * height / DHASH_HEIGHT);
+            for (var gx = 0; gx < DHASH_WIDTH; gx++) {
+                var x0 = gx * width / DHASH_WIDTH;
+                var x1 = Math.max(x0 + 1, (gx + 1) * width / DHASH_WIDTH);
+                var sum = 0L;
+                for (var y = y0; y < Math.min(y1, height); y++) {
+                    for (var x = x0; x < Math.min(x1, width); x++) {
+                        var rgb = pixels[y * width + x];
+                        sum += (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114);
+                    }
+                }
+                gray[gy][gx] = (double) sum / ((Math.min(y1, height) - y0) * (Math.min(x1, width) - x0));
+            }
+        }
+
+        var hash = 0L;
+        for (var y = 0; y < DHASH_HEIGHT; y++) {
+            for (var x = 0; x < DHASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (gray[y][x] < gray[y][x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
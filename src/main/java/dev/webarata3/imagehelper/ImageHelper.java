@@ -1,19 +1,13 @@
 package dev.webarata3.imagehelper;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Component;
-import java.awt.Cursor;
 import java.awt.Dimension;
-import java.awt.FlowLayout;
 import java.awt.Font;
-import java.awt.Image;
-import java.awt.Point;
+import java.awt.Graphics;
+import java.awt.GridLayout;
 import java.awt.Toolkit;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
@@ -21,46 +15,120 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
-import javax.swing.JWindow;
+import javax.swing.JSlider;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
 
 public class ImageHelper extends JFrame {
-    private JPanel thumbnailPanel;
+    private ThumbnailGrid thumbnailGrid;
     private JScrollPane scrollPane;
     private JLabel folderPathLabel;
+    private JLabel imageCountLabel;
     private static final String PREF_KEY_LAST_DIR = "last_opened_directory";
     private static final String PREF_KEY_WINDOW_WIDTH = "window_width";
     private static final String PREF_KEY_WINDOW_HEIGHT = "window_height";
     private static final String PREF_KEY_WINDOW_X = "window_x";
     private static final String PREF_KEY_WINDOW_Y = "window_y";
+    static final String PREF_KEY_DISK_CACHE_MB = "thumbnail_disk_cache_mb";
+    private static final String PREF_KEY_MEMORY_CACHE_MB = "thumbnail_memory_cache_mb";
+    private static final String PREF_KEY_CAPTURE_COMPRESSION = "capture_png_compression_level";
+    private static final String PREF_KEY_BURST_INTERVAL_MILLIS = "burst_interval_millis";
+    private static final String PREF_KEY_BURST_DURATION_SECONDS = "burst_duration_seconds";
+    private static final String PREF_KEY_EDT_STALL_MILLIS = "edt_stall_threshold_millis";
+    private static final String PREF_KEY_RECURSIVE = "recursive_mode";
+    // 以前の「大きさ順」の設定（sort_key が無いときだけ使う）
+    private static final String PREF_KEY_SORT_BY_PIXELS = "sort_by_pixels";
+    private static final String PREF_KEY_SORT_KEY = "sort_key";
+    // 比較で違うとみなす色の差（0 なら少しでも違えば）
+    private static final String PREF_KEY_DIFF_THRESHOLD = "diff_threshold";
+    private static final String PREF_KEY_THUMBNAIL_SIZE = "thumbnail_size";
+    private static final String PREF_KEY_VIEWER_CACHE_MB = "viewer_cache_mb";
+    private static final String PREF_KEY_VIEWER_PREFETCH = "viewer_prefetch_count";
+    // 起動から最初の描画までの目標
+    private static final long FIRST_PAINT_TARGET_MILLIS = 800;
     private Preferences prefs = Preferences.userNodeForPackage(getClass());
 
-    private final Set<Path> displayedImages = Collections.synchronizedSet(new java.util.HashSet<>());
-    private final Map<Path, JLabel> imageLabels = new HashMap<>();
     private Path currentFolderPath = null;
 
     private JPanel noFolderPanel;
     private JPanel selectedFolderPanel;
-    private JLabel selectedLabel = null;
+
+    // 監視できているときの全体確認の間隔と、監視できないときの確認の間隔
+    private static final int RECONCILE_INTERVAL_MILLIS = 60_000;
+    private static final int POLLING_INTERVAL_MILLIS = 5000;
+    private FolderWatcher folderWatcher;
+    private Path watchedFolderPath = null;
+    private boolean folderWatched = false;
+    private Timer reconcileTimer;
+
+    // フォルダーを切り替えても保持しておくサムネイル
+    private final ThumbnailMemoryCache thumbnailCache = new ThumbnailMemoryCache(
+            prefs.getLong(PREF_KEY_MEMORY_CACHE_MB, 64) * 1024 * 1024);
+    private final ThumbnailDiskCache thumbnailDiskCache = ThumbnailDiskCache
+            .openDefault(prefs.getLong(PREF_KEY_DISK_CACHE_MB, 256) * 1024 * 1024);
+    private final ThumbnailLoader thumbnailLoader = new ThumbnailLoader(thumbnailCache, thumbnailDiskCache,
+            this::applyThumbnails);
+    // サブフォルダーも含めて表示するか
+    private boolean recursiveMode = prefs.getBoolean(PREF_KEY_RECURSIVE, false);
+    // 表示中のフォルダーの画像の一覧と、グリッドに表示する並び順・絞り込み
+    private final ImageCatalog imageCatalog = new ImageCatalog();
+    private ImageCatalog.SortKey sortKey = loadSortKey();
+    private ImageCatalog.NameFilter nameFilter = null;
+    private final FolderScanner folderScanner = new FolderScanner(FolderManifest.openDefault());
+    // ビューアーで表示する画像（画面の大きさにデコードしたもの）と前後の先読み
+    private final ViewerFrameLoader viewerFrames = new ViewerFrameLoader(Toolkit.getDefaultToolkit().getScreenSize(),
+            prefs.getLong(PREF_KEY_VIEWER_CACHE_MB, 256) * 1024 * 1024);
+    private final CaptureEncoder captureEncoder = new CaptureEncoder(prefs.getInt(PREF_KEY_CAPTURE_COMPRESSION, 4), 1);
+    // 連続キャプチャーで保存待ちにできるフレーム数
+    private static final int BURST_MAX_PENDING = 8;
+    // 連続キャプチャーでは撮影間隔が短いので、複数のスレッドで並行して保存する
+    private CaptureEncoder burstEncoder;
+
+    // 選択した画像の削除・移動・コピー（バックグラウンドで行う）
+    private final FileOperations fileOperations = FileOperations.openDefault();
+    private JProgressBar fileOperationProgress;
+    // 失敗したときのエラーは 1 度に表示する件数まで
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    private StatsWindow statsWindow;
+    private ImageHashStore imageHashStore;
+    private boolean firstPaintRecorded = false;
 
     public ImageHelper() {
         super("画像サムネイルビューア");
@@ -68,6 +136,8 @@ public class ImageHelper extends JFrame {
         var icon = new ImageIcon(getClass().getResource("/icon.png")).getImage();
         setIconImage(icon);
 
+        startMetrics();
+
         createNoFolderLayout();
         createSelectedFolderLayout();
 
@@ -100,23 +170,29 @@ public class ImageHelper extends JFrame {
                 var location = getLocation();
                 prefs.putInt(PREF_KEY_WINDOW_X, location.x);
                 prefs.putInt(PREF_KEY_WINDOW_Y, location.y);
+
+                // 元に戻せなくなるのでゴミ箱に移したファイルを削除する（残ったものは次の起動時に削除する）
+                fileOperations.shutdown();
+                if (imageHashStore != null) {
+                    imageHashStore.close();
+                }
             }
         });
 
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if (selectedLabel != null && e.getKeyCode() == KeyEvent.VK_DELETE) {
-                    thumbnailPanel.remove(selectedLabel);
-                    try {
-                        Files.deleteIfExists(currentFolderPath.resolve(selectedLabel.getToolTipText()));
-                    } catch (IOException ex) {
-                    }
-                    displayedImages.remove(currentFolderPath.resolve(selectedLabel.getToolTipText()));
-                    imageLabels.remove(currentFolderPath.resolve(selectedLabel.getToolTipText()));
-                    selectedLabel = null;
-                    thumbnailPanel.revalidate();
-                    thumbnailPanel.repaint();
+                if (e.getKeyCode() == KeyEvent.VK_F12) {
+                    toggleStatsWindow();
+                    return;
+                }
+                var shortcut = (e.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) != 0;
+                if (e.getKeyCode() == KeyEvent.VK_DELETE) {
+                    runFileOperation(FileOperations.Kind.DELETE, null);
+                } else if (shortcut && e.getKeyCode() == KeyEvent.VK_Z) {
+                    undoFileOperation();
+                } else if (shortcut && e.getKeyCode() == KeyEvent.VK_A) {
+                    thumbnailGrid.selectAll();
                 }
             }
         });
@@ -153,32 +229,431 @@ public class ImageHelper extends JFrame {
         selectFolderBtn.addActionListener(a -> chooseFolder());
         infoPanel.add(selectFolderBtn);
 
+        var recursiveCheckBox = new JCheckBox("サブフォルダーも表示", recursiveMode);
+        recursiveCheckBox.addActionListener(a -> {
+            recursiveMode = recursiveCheckBox.isSelected();
+            prefs.putBoolean(PREF_KEY_RECURSIVE, recursiveMode);
+            if (currentFolderPath != null) {
+                scanFolder(false);
+            }
+        });
+        infoPanel.add(recursiveCheckBox);
+
+        var sortComboBox = new JComboBox<>(ImageCatalog.SortKey.values());
+        sortComboBox.setSelectedItem(sortKey);
+        sortComboBox.addActionListener(a -> {
+            sortKey = (ImageCatalog.SortKey) sortComboBox.getSelectedItem();
+            prefs.put(PREF_KEY_SORT_KEY, sortKey.name());
+            refreshView();
+        });
+        sortComboBox.setMaximumSize(sortComboBox.getPreferredSize());
+        infoPanel.add(sortComboBox);
+
+        // ファイル名での絞り込み（部分一致か * ? のワイルドカード）。1 文字打つごとに反映する
+        var filterPanel = new JPanel();
+        filterPanel.setLayout(new BoxLayout(filterPanel, BoxLayout.X_AXIS));
+        filterPanel.add(new JLabel("絞り込み: "));
+        var filterField = new JTextField(20);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            private void changed() {
+                nameFilter = ImageCatalog.NameFilter.of(filterField.getText());
+                refreshView();
+            }
+        });
+        filterField.setMaximumSize(filterField.getPreferredSize());
+        filterPanel.add(filterField);
+        imageCountLabel = new JLabel();
+        imageCountLabel.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+        filterPanel.add(imageCountLabel);
+        filterPanel.setAlignmentX(LEFT_ALIGNMENT);
+        infoPanel.add(filterPanel);
+
         var captureBtn = new JButton("画面キャプチャ");
         captureBtn.addActionListener(a -> startCapture());
         infoPanel.add(captureBtn);
 
+        var burstCaptureBtn = new JButton("連続キャプチャ");
+        burstCaptureBtn.addActionListener(a -> startBurstCapture());
+        infoPanel.add(burstCaptureBtn);
+
+        var findDuplicatesBtn = new JButton("重複を探す");
+        findDuplicatesBtn.addActionListener(a -> findDuplicates());
+        infoPanel.add(findDuplicatesBtn);
+
         // サムネイル表示パネル
-        thumbnailPanel = new JPanel(new WrapLayout(FlowLayout.LEFT, 10, 10));
-        // thumbnailPanel.setPreferredSize(new Dimension(800, 600));
-        // scrollPane = new JScrollPane(thumbnailPanel);
-        thumbnailPanel = new ScrollablePanel(new WrapLayout(FlowLayout.LEFT, 10, 10));
-        scrollPane = new JScrollPane(thumbnailPanel);
+        var thumbnailSize = Math.max(Thumbnails.MIN_THUMBNAIL_SIZE,
+                Math.min(Thumbnails.MAX_THUMBNAIL_SIZE, prefs.getInt(PREF_KEY_THUMBNAIL_SIZE, Thumbnails.THUMBNAIL_SIZE)));
+        thumbnailGrid = new ThumbnailGrid(thumbnailSize, 10, path -> {
+            var level = currentLevel();
+            var thumbnail = thumbnailCache.peek(path, level);
+            if (thumbnail == null) {
+                thumbnailLoader.request(path, level);
+                // 読み込みが終わるまでは別のレベルのもので代用する
+                thumbnail = thumbnailCache.getNearest(path, level);
+            }
+            return thumbnail;
+        });
+        thumbnailGrid.setOpenListener(path -> showDraggableResizableImage(path));
+        thumbnailGrid.setComponentPopupMenu(createThumbnailMenu());
+        // フォーカスをフレームに戻してキーを受け取れるように
+        thumbnailGrid.setSelectionListener(path -> requestFocusInWindow());
+        scrollPane = new JScrollPane(thumbnailGrid);
+        // 表示中のサムネイルはメモリキャッシュから捨てられないようにする
+        scrollPane.getViewport().addChangeListener(e -> thumbnailCache.setPinned(thumbnailGrid.getVisiblePaths()));
+        Metrics.registerCache("atlas", thumbnailGrid::atlasHitCount, thumbnailGrid::atlasMissCount);
+        thumbnailLoader.setDisplayLevel(currentLevel());
+
+        // サムネイルの表示サイズ（キャッシュ済みのレベルを拡大・縮小するので元画像は読み直さない）
+        var sizeSlider = new JSlider(Thumbnails.MIN_THUMBNAIL_SIZE, Thumbnails.MAX_THUMBNAIL_SIZE, thumbnailSize);
+        sizeSlider.addChangeListener(e -> {
+            thumbnailGrid.setThumbnailSize(sizeSlider.getValue());
+            // 前のレベルの読み込み待ちは捨てる
+            thumbnailLoader.setDisplayLevel(currentLevel());
+            if (!sizeSlider.getValueIsAdjusting()) {
+                prefs.putInt(PREF_KEY_THUMBNAIL_SIZE, sizeSlider.getValue());
+            }
+        });
+        sizeSlider.setMaximumSize(sizeSlider.getPreferredSize());
+        infoPanel.add(sizeSlider);
+
+        // 削除・移動・コピーの進み具合（実行中だけ表示する）
+        fileOperationProgress = new JProgressBar();
+        fileOperationProgress.setStringPainted(true);
+        fileOperationProgress.setVisible(false);
+        fileOperationProgress.setAlignmentX(LEFT_ALIGNMENT);
+        infoPanel.add(fileOperationProgress);
 
         // レイアウト設定
         selectedFolderPanel.add(infoPanel, BorderLayout.NORTH);
         selectedFolderPanel.add(scrollPane, BorderLayout.CENTER);
     }
 
+    // サムネイルの右クリックのメニュー。選択中の画像をまとめて処理する
+    private JPopupMenu createThumbnailMenu() {
+        var menu = new JPopupMenu();
+        var deleteItem = new JMenuItem("削除");
+        deleteItem.addActionListener(a -> runFileOperation(FileOperations.Kind.DELETE, null));
+        menu.add(deleteItem);
+        var moveItem = new JMenuItem("移動...");
+        moveItem.addActionListener(a -> chooseDestination("移動先").ifPresent(
+                destination -> runFileOperation(FileOperations.Kind.MOVE, destination)));
+        menu.add(moveItem);
+        var copyItem = new JMenuItem("コピー...");
+        copyItem.addActionListener(a -> chooseDestination("コピー先").ifPresent(
+                destination -> runFileOperation(FileOperations.Kind.COPY, destination)));
+        menu.add(copyItem);
+        menu.addSeparator();
+        var compareItem = new JMenuItem("比較");
+        compareItem.addActionListener(a -> compareSelected());
+        menu.add(compareItem);
+        menu.addSeparator();
+        var undoItem = new JMenuItem("元に戻す");
+        undoItem.addActionListener(a -> undoFileOperation());
+        menu.add(undoItem);
+        var selectAllItem = new JMenuItem("すべて選択");
+        selectAllItem.addActionListener(a -> thumbnailGrid.selectAll());
+        menu.add(selectAllItem);
+        menu.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                var selectedCount = thumbnailGrid.getSelectedPaths().size();
+                deleteItem.setEnabled(selectedCount > 0);
+                moveItem.setEnabled(selectedCount > 0);
+                copyItem.setEnabled(selectedCount > 0);
+                compareItem.setEnabled(selectedCount == 2);
+                undoItem.setEnabled(fileOperations.canUndo());
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+            }
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
+        return menu;
+    }
+
+    // 選択中の 2 枚を比べる。更新日時が古いほうを変更前とする
+    private void compareSelected() {
+        var paths = thumbnailGrid.getSelectedPaths();
+        if (paths.size() != 2) return;
+
+        var before = paths.get(0);
+        var after = paths.get(1);
+        var first = imageCatalog.get(before);
+        var second = imageCatalog.get(after);
+        if (first != null && second != null && first.lastModified() > second.lastModified()) {
+            before = paths.get(1);
+            after = paths.get(0);
+        }
+        new ImageDiffWindow(this, before, after, prefs.getInt(PREF_KEY_DIFF_THRESHOLD, 0)).setVisible(true);
+    }
+
+    private Optional<Path> chooseDestination(String title) {
+        var chooser = new JFileChooser(currentFolderPath == null ? null : currentFolderPath.toFile());
+        chooser.setDialogTitle(title);
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showDialog(this, "選択") != JFileChooser.APPROVE_OPTION) return Optional.empty();
+        return Optional.of(chooser.getSelectedFile().toPath());
+    }
+
+    // 選択中の画像をまとめて削除・移動・コピーする
+    // 削除と移動では先に一覧から取り除いて 1 回だけ並べ直し、失敗したものは終わってから一覧に戻す
+    private void runFileOperation(FileOperations.Kind kind, Path destination) {
+        var paths = thumbnailGrid.getSelectedPaths();
+        if (paths.isEmpty()) return;
+
+        var removedItems = new HashMap<Path, ImageCatalog.Item>();
+        if (kind != FileOperations.Kind.COPY) {
+            for (var path : paths) {
+                var item = imageCatalog.get(path);
+                if (item != null) {
+                    removedItems.put(path, item);
+                }
+                viewerFrames.remove(path);
+            }
+            removeImages(paths);
+        }
+        fileOperations.run(kind, paths, destination, new FileOperationListener(removedItems));
+    }
+
+    private void undoFileOperation() {
+        fileOperations.undo(new FileOperationListener(Map.of()));
+    }
+
+    private class FileOperationListener implements FileOperations.Listener {
+        // 一覧から先に取り除いた画像
+        private final Map<Path, ImageCatalog.Item> removedItems;
+
+        FileOperationListener(Map<Path, ImageCatalog.Item> removedItems) {
+            this.removedItems = removedItems;
+        }
+
+        @Override
+        public void progress(FileOperations.Kind kind, int done, int total) {
+            fileOperationProgress.setMaximum(total);
+            fileOperationProgress.setValue(done);
+            fileOperationProgress.setString(String.format("%s中 %d / %d", kind, done, total));
+            fileOperationProgress.setVisible(true);
+        }
+
+        @Override
+        public void finished(FileOperations.Result result) {
+            fileOperationProgress.setVisible(false);
+
+            // 処理できなかった画像は一覧に戻す
+            var restored = new ArrayList<ImageCatalog.Item>();
+            var sizes = new HashMap<Path, Dimension>();
+            for (var failure : result.failed()) {
+                var item = removedItems.get(failure.path());
+                if (item == null) continue;
+                restored.add(item);
+                if (item.width() > 0 && item.height() > 0) {
+                    sizes.put(item.path(), new Dimension(item.width(), item.height()));
+                }
+            }
+            thumbnailGrid.setImageSizes(sizes);
+            if (imageCatalog.putAll(restored)) {
+                refreshView();
+            }
+            if (result.kind() == FileOperations.Kind.UNDO && currentFolderPath != null) {
+                // 元に戻したファイルを一覧に反映する
+                scanFolder(true);
+            }
+            if (!result.failed().isEmpty()) {
+                showFailures(result);
+            }
+        }
+    }
+
+    private void showFailures(FileOperations.Result result) {
+        var message = new StringBuilder(String.format("%d 件の%sに失敗しました:%n", result.failed().size(), result.kind()));
+        for (var failure : result.failed().subList(0, Math.min(MAX_REPORTED_FAILURES, result.failed().size()))) {
+            message.append(String.format("%s: %s%n", failure.path().getFileName(), failure.message()));
+        }
+        if (result.failed().size() > MAX_REPORTED_FAILURES) {
+            message.append(String.format("ほか %d 件", result.failed().size() - MAX_REPORTED_FAILURES));
+        }
+        JOptionPane.showMessageDialog(this, message.toString(), result.kind().toString(), JOptionPane.WARNING_MESSAGE);
+    }
+
+    // 今の表示サイズに使うサムネイルのレベル
+    private int currentLevel() {
+        return Thumbnails.levelFor(thumbnailGrid.getThumbnailSize());
+    }
+
+    private ImageCatalog.SortKey loadSortKey() {
+        var name = prefs.get(PREF_KEY_SORT_KEY, null);
+        if (name == null) {
+            return prefs.getBoolean(PREF_KEY_SORT_BY_PIXELS, false) ? ImageCatalog.SortKey.PIXELS
+                    : ImageCatalog.SortKey.NAME;
+        }
+        try {
+            return ImageCatalog.SortKey.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return ImageCatalog.SortKey.NAME;
+        }
+    }
+
+    // 一覧の並び順と絞り込みをグリッドに反映する
+    private void refreshView() {
+        var paths = imageCatalog.view(sortKey, nameFilter);
+        thumbnailGrid.setPaths(paths);
+        imageCountLabel.setText(nameFilter == null ? paths.size() + " 枚"
+                : String.format("%d / %d 枚", paths.size(), imageCatalog.size()));
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!firstPaintRecorded) {
+            firstPaintRecorded = true;
+            recordFirstPaint();
+        }
+    }
+
+    // プロセスの開始から最初に描画されるまでの時間を記録し、目標を超えていたら知らせる
+    private static void recordFirstPaint() {
+        var started = ProcessHandle.current().info().startInstant();
+        if (started.isEmpty()) return;
+
+        var millis = Duration.between(started.get(), Instant.now()).toMillis();
+        Metrics.FIRST_PAINT.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        if (millis > FIRST_PAINT_TARGET_MILLIS) {
+            System.err.printf("起動から最初の描画まで %d ms かかりました（目標 %d ms）%n", millis,
+                    FIRST_PAINT_TARGET_MILLIS);
+        }
+    }
+
+    private void startMetrics() {
+        Metrics.registerCache("memory", thumbnailCache::hitCount, thumbnailCache::missCount);
+        Metrics.registerCache("disk", thumbnailDiskCache::hitCount, thumbnailDiskCache::missCount);
+        Metrics.registerCache("viewer", viewerFrames::hitCount, viewerFrames::missCount);
+        Metrics.registerQueue("thumbnailLoader", thumbnailLoader::queueDepth);
+        Metrics.registerQueue("thumbnailPyramid", thumbnailLoader::pyramidQueueDepth);
+        Metrics.registerQueue("captureEncoder", captureEncoder::pendingCount);
+        Metrics.registerQueue("viewerPrefetch", viewerFrames::queueDepth);
+        Metrics.registerQueue("fileOperations", fileOperations::queueDepth);
+        // JMX の準備は時間がかかるので起動を待たせない
+        var registrar = new Thread(Metrics::registerMBeans, "metrics-mbeans");
+        registrar.setDaemon(true);
+        registrar.start();
+
+        new EdtWatchdog(prefs.getInt(PREF_KEY_EDT_STALL_MILLIS, 500)).start();
+    }
+
+    // F12 で統計情報のウィンドウを開閉する
+    private void toggleStatsWindow() {
+        if (statsWindow != null && statsWindow.isDisplayable()) {
+            statsWindow.dispose();
+            statsWindow = null;
+            return;
+        }
+        statsWindow = new StatsWindow(this);
+        statsWindow.setVisible(true);
+    }
+
+    private void findDuplicates() {
+        var paths = thumbnailGrid.getPaths();
+        if (paths.size() < 2) {
+            JOptionPane.showMessageDialog(this, "画像が 2 枚以上ありません");
+            return;
+        }
+        if (imageHashStore == null) {
+            // 保存済みのハッシュはバックグラウンドで読み、重複の検索はその完了を待ってから始まる
+            imageHashStore = ImageHashStore.openDefault();
+        }
+        var level = Thumbnails.levelFor(Thumbnails.THUMBNAIL_SIZE);
+        new DuplicateWindow(this, paths, imageHashStore, path -> thumbnailCache.getNearest(path, level),
+                path -> thumbnailLoader.loadThumbnail(path, level),
+                this::showDraggableResizableImage).setVisible(true);
+    }
+
     private void startCapture() {
         // この JFrame を一時的に非表示
         this.setVisible(false);
 
         // キャプチャーを開始（CaptureOverlay にこの JFrame を渡す）
         SwingUtilities.invokeLater(() -> {
-            new CaptureOverlay(ImageHelper.this, currentFolderPath.toFile());
+            new CaptureOverlay(ImageHelper.this, currentFolderPath, captureEncoder, this::addCapturedImage);
         });
     }
 
+    private void startBurstCapture() {
+        var intervalSpinner = new JSpinner(
+                new SpinnerNumberModel(prefs.getInt(PREF_KEY_BURST_INTERVAL_MILLIS, 500), 50, 60_000, 50));
+        var durationSpinner = new JSpinner(
+                new SpinnerNumberModel(prefs.getInt(PREF_KEY_BURST_DURATION_SECONDS, 30), 1, 3600, 1));
+        var settings = new JPanel(new GridLayout(2, 2, 8, 4));
+        settings.add(new JLabel("撮影間隔（ミリ秒）"));
+        settings.add(intervalSpinner);
+        settings.add(new JLabel("撮影時間（秒）"));
+        settings.add(durationSpinner);
+        if (JOptionPane.showConfirmDialog(this, settings, "連続キャプチャ",
+                JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        var intervalMillis = (Integer) intervalSpinner.getValue();
+        var durationSeconds = (Integer) durationSpinner.getValue();
+        prefs.putInt(PREF_KEY_BURST_INTERVAL_MILLIS, intervalMillis);
+        prefs.putInt(PREF_KEY_BURST_DURATION_SECONDS, durationSeconds);
+
+        if (burstEncoder == null) {
+            var threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            burstEncoder = new CaptureEncoder(prefs.getInt(PREF_KEY_CAPTURE_COMPRESSION, 4), threads);
+            Metrics.registerQueue("burstEncoder", burstEncoder::pendingCount);
+        }
+
+        // 範囲を選んでいる間と撮影中は、この JFrame を非表示にしておく
+        this.setVisible(false);
+        SwingUtilities.invokeLater(() -> new CaptureOverlay(ImageHelper.this, area -> {
+            if (area == null) {
+                setVisible(true);
+                return;
+            }
+            var controlWindow = new BurstControlWindow[1];
+            var burst = new BurstCapture(area, intervalMillis, durationSeconds * 1000L, currentFolderPath,
+                    burstEncoder, BURST_MAX_PENDING, this::addCapturedImage, stats -> {
+                        controlWindow[0].dispose();
+                        setVisible(true);
+                        JOptionPane.showMessageDialog(this, String.format(
+                                "連続キャプチャが終了しました%n撮影: %d 枚%n保存: %d 枚%n同じ画面のため省略: %d 枚%n保存が追いつかず取りこぼし: %d 枚%n失敗: %d 枚",
+                                stats.captured(), stats.saved(), stats.skipped(), stats.dropped(), stats.failed()));
+                    });
+            controlWindow[0] = new BurstControlWindow(this, burst, area);
+            burst.start();
+        }));
+    }
+
+    // 保存したキャプチャーは読み直さずに、取り込んだ画素からサムネイルを作って表示する
+    private void addCapturedImage(Path path, BufferedImage image) {
+        if (!path.getParent().equals(currentFolderPath)) return;
+
+        thumbnailLoader.addDecoded(path, image, currentLevel());
+        thumbnailGrid.setImageSizes(Map.of(path, new Dimension(image.getWidth(), image.getHeight())));
+        // ファイルサイズなどは次の走査で埋まる
+        if (imageCatalog.putAll(List.of(ImageCatalog.item(path, -1, -1, image.getWidth(), image.getHeight())))) {
+            refreshView();
+        }
+    }
+
     // フォルダーを選択してサムネイル表示
     private void chooseFolder() {
         var chooser = new JFileChooser();
@@ -191,8 +666,11 @@ public class ImageHelper extends JFrame {
             setLocationRelativeTo(null);
             prefs.put(PREF_KEY_LAST_DIR, folder.getAbsolutePath()); // 保存
 
-            displayedImages.clear();
-            imageLabels.clear();
+            // 前のフォルダーの読み込みは中止する
+            thumbnailLoader.cancelAll();
+            thumbnailGrid.clear();
+            imageCatalog.clear();
+            refreshView();
             showThumbnails(folder.toPath());
         }
     }
@@ -203,186 +681,174 @@ public class ImageHelper extends JFrame {
             var folder = new File(lastPath);
             if (folder.exists() && folder.isDirectory()) {
                 folderPathLabel.setText("現在のフォルダー: " + folder.getAbsolutePath());
-                showThumbnails(folder.toPath());
+                // 前回保存した一覧ですぐに並べておき、実際のフォルダーとの違いは続く走査で反映する
+                var folderPath = folder.toPath();
+                folderScanner.restore(folderPath, recursiveMode, entries -> {
+                    if (folderPath.equals(currentFolderPath)) applyFoundImages(entries);
+                });
+                showThumbnails(folderPath);
             }
         }
     }
 
     // フォルダー内の画像をサムネイルで表示
+    // 一覧の取得と画像の読み込みはバックグラウンドで行う
     private void showThumbnails(Path folderPath) {
         this.currentFolderPath = folderPath; // 現在のフォルダー記録
+        watchFolder(folderPath);
+        scanFolder(true);
+    }
 
-        try {
-            var imagePaths = Files.list(folderPath).filter(Files::isRegularFile).filter(p -> {
-                var name = p.getFileName().toString().toLowerCase();
-                return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")
-                        || name.endsWith(".gif");
-            }).collect(Collectors.toList());
-
-            displayedImages.stream().filter(displayedImage -> !imagePaths.contains(displayedImage))
-                    .forEach(displayImage -> {
-                        thumbnailPanel.remove(imageLabels.get(displayImage));
-                    });
-
-            for (var path : imagePaths) {
-                if (displayedImages.contains(path)) continue;
-
-                var original = ImageIO.read(path.toFile());
-                if (original == null) continue;
-
-                var thumb = getScaledImageKeepAspectRatio(original, 100, 100);
-                var label = new JLabel(new ImageIcon(thumb));
-                label.setToolTipText(path.getFileName().toString());
-                label.setBorder(BorderFactory.createLineBorder(new Color(0, 0, 0, 0), 1));
-
-                label.addMouseListener(new MouseAdapter() {
-                    @Override
-                    public void mouseClicked(MouseEvent e) {
-                        for (var comp : thumbnailPanel.getComponents()) {
-                            if (comp instanceof JLabel) {
-                                ((JLabel) comp).setBorder(BorderFactory.createLineBorder(new Color(0, 0, 0, 0), 1));
-                            }
-                        }
-                        if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
-                            showDraggableResizableImage(path);
-                        } else {
-                            selectedLabel = (JLabel) e.getComponent();
-                            selectedLabel.setBorder(BorderFactory.createLineBorder(new Color(255, 0, 0), 1));
-
-                            // フォーカスをフレームに戻してキーを受け取れるように
-                            ImageHelper.this.requestFocusInWindow();
-                        }
-                    }
-                });
+    // 見つかった画像から順に表示し、走査が終わったら無くなった画像を取り除く
+    // revalidate が false なら、更新日時が変わっていないフォルダーは前回の一覧を使う
+    private void scanFolder(boolean revalidate) {
+        folderScanner.scan(currentFolderPath, recursiveMode, revalidate, this::applyFoundImages,
+                this::applyImageList,
+                e -> JOptionPane.showMessageDialog(this, "画像の読み込み中にエラーが発生しました: " + e.getMessage()));
+    }
 
-                thumbnailPanel.add(label);
-                displayedImages.add(path); // 表示済みとして記録
-                imageLabels.put(path, label); // ラベルを記録
+    private void applyFoundImages(List<FolderIndex.Entry> entries) {
+        var items = new ArrayList<ImageCatalog.Item>();
+        var sizes = new HashMap<Path, Dimension>();
+        for (var entry : entries) {
+            if (hasFailed(entry)) continue;
+            // 更新された画像の古いサムネイルはメモリキャッシュから捨てる
+            thumbnailCache.removeIfStale(entry.path(), entry.size(), entry.lastModified());
+            if (entry.hasDimensions()) {
+                sizes.put(entry.path(), new Dimension(entry.width(), entry.height()));
             }
+            items.add(ImageCatalog.item(entry));
+        }
+        // ヘッダーから読んだサイズを先に渡しておき、読み込み前からサムネイルと同じ形で並べる
+        thumbnailGrid.setImageSizes(sizes);
+        // 描画時に読み込みが依頼され、終わるまではプレースホルダーが表示される
+        if (imageCatalog.putAll(items)) {
+            refreshView();
+        }
+    }
 
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "画像の読み込み中にエラーが発生しました: " + e.getMessage());
+    // 取得したファイル一覧と表示中の一覧の差分を反映する
+    private void applyImageList(List<FolderIndex.Entry> entries) {
+        var readable = entries.stream().filter(entry -> !hasFailed(entry)).collect(Collectors.toList());
+        var imagePathSet = new HashSet<Path>();
+        for (var entry : readable) {
+            imagePathSet.add(entry.path());
+        }
+        var removed = imageCatalog.paths().stream().filter(path -> !imagePathSet.contains(path))
+                .collect(Collectors.toList());
+        var changed = removeFromCatalog(removed);
+        changed |= imageCatalog.putAll(readable.stream().map(ImageCatalog::item).collect(Collectors.toList()));
+        if (changed) {
+            refreshView();
         }
+    }
 
-        thumbnailPanel.revalidate();
-        thumbnailPanel.repaint();
+    // 前に読み込めなかった画像で、それから更新されていないもの
+    private boolean hasFailed(FolderIndex.Entry entry) {
+        return thumbnailLoader.hasFailed(entry.path(), entry.size(), entry.lastModified());
     }
 
-    private void startFolderMonitor() {
-        var delayMillis = 5000; // 5秒おきに確認
-        new Timer(delayMillis, e -> {
-            if (currentFolderPath != null) {
-                showThumbnails(currentFolderPath);
+    // フォルダー監視で検知した変更だけを反映する
+    private void applyFolderChanges(FolderWatcher.Changes changes) {
+        if (!changes.folder().equals(currentFolderPath)) return;
+
+        if (changes.overflow()) {
+            // 取りこぼしたイベントがあるのでフォルダー全体を確認し直す
+            scanFolder(true);
+            return;
+        }
+
+        changes.deleted().forEach(viewerFrames::remove);
+        var changed = removeFromCatalog(changes.deleted());
+        var added = new ArrayList<ImageCatalog.Item>();
+        for (var path : changes.updated()) {
+            viewerFrames.remove(path);
+            if (imageCatalog.contains(path)) {
+                // 上書きされた画像は読み込み直す
+                thumbnailLoader.reload(path, currentLevel());
+            } else {
+                // ファイルサイズなどは次の走査で埋まる
+                added.add(ImageCatalog.item(path, -1, -1, -1, -1));
             }
-        }).start();
+        }
+        changed |= imageCatalog.putAll(added);
+        if (changed) {
+            refreshView();
+        }
+        // 上書きや追加された画像のサイズ・更新日時・ヘッダーの寸法を、その画像だけ読み直して索引と一覧に反映する
+        folderScanner.update(currentFolderPath, changes.updated(), changes.deleted(), this::applyFoundImages);
     }
 
-    private Image getScaledImageKeepAspectRatio(BufferedImage img, int maxWidth, int maxHeight) {
-        var width = img.getWidth();
-        var height = img.getHeight();
-        var scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
-        var newWidth = (int) (width * scale);
-        var newHeight = (int) (height * scale);
-        return img.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
+    // 一覧とグリッドの両方から取り除く（絞り込みで隠れているものも）
+    private boolean removeFromCatalog(Collection<Path> paths) {
+        thumbnailGrid.removePaths(paths);
+        return imageCatalog.removeAll(paths);
     }
 
-    private void showDraggableResizableImage(Path imagePath) {
-        try {
-            var originalImage = ImageIO.read(imagePath.toFile());
-            if (originalImage == null) return;
-
-            var window = new JWindow();
-            window.setAlwaysOnTop(true);
-            window.setBackground(Color.BLACK);
-
-            var imageLabel = new JLabel();
-            imageLabel.setHorizontalAlignment(JLabel.CENTER);
-            imageLabel.setVerticalAlignment(JLabel.CENTER);
-            imageLabel.setOpaque(true);
-            imageLabel.setBackground(Color.BLACK);
-
-            imageLabel.setIcon(new ImageIcon(originalImage));
-
-            var scrollPane = new JScrollPane(imageLabel);
-            scrollPane.setBorder(null);
-            window.getContentPane().setLayout(new BorderLayout());
-            window.getContentPane().add(scrollPane, BorderLayout.CENTER);
-
-            window.setSize(originalImage.getWidth(), originalImage.getHeight());
-            var screen = Toolkit.getDefaultToolkit().getScreenSize();
-            window.setLocation((screen.width - window.getWidth()) / 2, (screen.height - window.getHeight()) / 2);
-
-            final int RESIZE_MARGIN = 10;
-            final Point[] mouseDownCoords = { null };
-            final boolean[] resizing = { false };
-
-            var unifiedMouseHandler = new MouseAdapter() {
-                @Override
-                public void mousePressed(MouseEvent e) {
-                    Component c = e.getComponent();
-                    Dimension size = c.getSize();
-                    Point p = e.getPoint();
-
-                    // 右下かどうか
-                    resizing[0] = p.x >= size.width - RESIZE_MARGIN && p.y >= size.height - RESIZE_MARGIN;
-
-                    if (!resizing[0]) {
-                        mouseDownCoords[0] = SwingUtilities.convertPoint(c, p, window); // 親ウィンドウ基準に変換
-                    }
-                }
+    private void removeImages(Collection<Path> paths) {
+        if (removeFromCatalog(paths)) {
+            refreshView();
+        }
+    }
 
-                @Override
-                public void mouseDragged(MouseEvent e) {
-                    if (resizing[0]) {
-                        var p = e.getPoint();
-                        // 基準画像のサイズ
-                        var aspect = (double) originalImage.getWidth() / originalImage.getHeight();
-
-                        // マウスの位置を元に仮の幅と高さを計算（縦横比維持）
-                        var newWidth = Math.max(100, p.x);
-                        var newHeight = (int) (newWidth / aspect);
-
-                        // ウィンドウに反映
-                        window.setSize(newWidth, newHeight);
-
-                        // スケーリング再設定（表示サイズに応じて）
-                        var viewSize = scrollPane.getViewport().getSize();
-                        var scaled = getScaledImageKeepAspectRatio(originalImage, viewSize.width, viewSize.height);
-                        imageLabel.setIcon(new ImageIcon(scaled));
-                    } else if (mouseDownCoords[0] != null) {
-                        // ウィンドウ移動処理
-                        var currCoords = e.getLocationOnScreen();
-                        window.setLocation(currCoords.x - mouseDownCoords[0].x, currCoords.y - mouseDownCoords[0].y);
-                    }
-                }
+    // バックグラウンドで読み込んだサムネイルをまとめて反映する
+    private void applyThumbnails(List<ThumbnailLoader.Result> results) {
+        var failed = new ArrayList<Path>();
+        for (var result : results) {
+            if (result.thumbnail() == null) {
+                // 画像として読み込めなかったものは表示しない（ファイルが更新されたら走査で再び一覧に入る）
+                failed.add(result.path());
+            } else {
+                thumbnailGrid.repaintPath(result.path());
+            }
+        }
+        removeImages(failed);
+    }
 
-                @Override
-                public void mouseMoved(MouseEvent e) {
-                    var c = e.getComponent();
-                    var size = c.getSize();
-                    if (e.getX() >= size.width - RESIZE_MARGIN && e.getY() >= size.height - RESIZE_MARGIN) {
-                        c.setCursor(Cursor.getPredefinedCursor(Cursor.SE_RESIZE_CURSOR));
-                    } else {
-                        c.setCursor(Cursor.getDefaultCursor());
-                    }
-                }
+    private void startFolderMonitor() {
+        try {
+            folderWatcher = new FolderWatcher(this::applyFolderChanges);
+        } catch (IOException e) {
+            // WatchService が使えない場合は定期的な確認だけで監視する
+            folderWatcher = null;
+        }
 
-                @Override
-                public void mouseClicked(MouseEvent e) {
-                    if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
-                        window.dispose();
-                    }
-                }
-            };
+        // イベントの取りこぼしに備えて、定期的にフォルダー全体も確認する
+        // 監視できているときは、更新日時が変わったフォルダーだけを読み直す
+        reconcileTimer = new Timer(RECONCILE_INTERVAL_MILLIS, e -> {
+            if (currentFolderPath != null) {
+                scanFolder(!folderWatched);
+            }
+        });
+        reconcileTimer.start();
 
-            // imageLabel または scrollPane.getViewport().getView() にリスナーを登録
-            var imageComponent = scrollPane.getViewport().getView();
-            imageComponent.addMouseListener(unifiedMouseHandler);
-            imageComponent.addMouseMotionListener(unifiedMouseHandler);
-            window.setVisible(true);
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "画像を表示できませんでした: " + e.getMessage());
+        if (currentFolderPath != null) {
+            watchFolder(currentFolderPath);
         }
     }
+
+    private void watchFolder(Path folderPath) {
+        if (reconcileTimer == null || folderPath.equals(watchedFolderPath)) return;
+
+        watchedFolderPath = folderPath;
+        folderWatched = folderWatcher != null && folderWatcher.watch(folderPath);
+        reconcileTimer.setDelay(folderWatched ? RECONCILE_INTERVAL_MILLIS : POLLING_INTERVAL_MILLIS);
+    }
+
+    // 画像の読み込みはバックグラウンドで行い、読み込めたらビューアーを開く
+    private void showDraggableResizableImage(Path imagePath) {
+        // 開いているビューアーごとに読み込みを分け、他のビューアーの先読みを取り消さないようにする
+        var session = viewerFrames.openSession();
+        session.load(imagePath, List.of()).whenComplete((frame, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                session.close();
+                if (ex instanceof CancellationException) return;
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this, "画像を表示できませんでした: " + ex.getMessage());
+                return;
+            }
+            new ImageViewerWindow(this, session, thumbnailGrid::getNeighbor,
+                    prefs.getInt(PREF_KEY_VIEWER_PREFETCH, 2), frame).setVisible(true);
+        }));
+    }
 }
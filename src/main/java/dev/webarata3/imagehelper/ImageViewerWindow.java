@@ -0,0 +1,280 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiFunction;
+
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.JWindow;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+
+// 画像をドラッグで移動・右下のドラッグでサイズ変更できるウィンドウで表示する
+// 大きな画像は TiledImageView で表示範囲だけを読み込む
+// 左右キーなどでサムネイルの並び順に前後の画像へ移り、その先の画像は ViewerFrameLoader で先読みしておく
+class ImageViewerWindow extends JWindow {
+    // これより画素数が多い画像はタイル表示にする
+    static final long LARGE_IMAGE_PIXELS = 4096L * 4096;
+    private static final int RESIZE_MARGIN = 10;
+    // タイル表示のときの、画面に対するウィンドウの最大の大きさ
+    private static final double MAX_SCREEN_RATIO = 0.8;
+
+    private final ViewerFrameLoader.Session session;
+    // (パス, 移動量) からサムネイルの並び順で前後のパスを返す。無ければ null
+    private final BiFunction<Path, Integer, Path> neighbor;
+    private final int prefetchCount;
+
+    // 移動先のパス。読み込みを待たずに進めるので、表示中の画像とは限らない
+    private Path currentPath;
+    // 表示中の画像のパス
+    private Path shownPath;
+    private JComponent imageComponent;
+    private TiledImageView tiledView;
+    // 移動するたびに増やし、遅れて届いた前の画像を捨てる
+    private int generation = 0;
+
+    // session: このウィンドウ用の読み込み（閉じるときに close する）。first は読み込み済みの最初の画像
+    ImageViewerWindow(JFrame owner, ViewerFrameLoader.Session session, BiFunction<Path, Integer, Path> neighbor,
+            int prefetchCount, ViewerFrameLoader.Frame first) {
+        // キー入力を受け取れるように表示中のウィンドウを親にする
+        super(owner);
+        this.session = session;
+        this.neighbor = neighbor;
+        this.prefetchCount = prefetchCount;
+
+        setAlwaysOnTop(true);
+        setBackground(Color.BLACK);
+        getContentPane().setLayout(new BorderLayout());
+
+        setFrame(first);
+        setSize(initialSize(first));
+        var screen = Toolkit.getDefaultToolkit().getScreenSize();
+        setLocation((screen.width - getWidth()) / 2, (screen.height - getHeight()) / 2);
+
+        bindKey(KeyEvent.VK_RIGHT, "next", () -> step(1));
+        bindKey(KeyEvent.VK_PAGE_DOWN, "next", () -> step(1));
+        bindKey(KeyEvent.VK_SPACE, "next", () -> step(1));
+        bindKey(KeyEvent.VK_LEFT, "previous", () -> step(-1));
+        bindKey(KeyEvent.VK_PAGE_UP, "previous", () -> step(-1));
+        bindKey(KeyEvent.VK_BACK_SPACE, "previous", () -> step(-1));
+        bindKey(KeyEvent.VK_ESCAPE, "close", this::dispose);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                requestFocus();
+            }
+        });
+
+        prefetchAround(first.path());
+    }
+
+    // 最初に開くときの大きさ。画面より大きい画像は画面に収める
+    private static Dimension initialSize(ViewerFrameLoader.Frame frame) {
+        if (!frame.isTiled()) return new Dimension(frame.image().getWidth(), frame.image().getHeight());
+
+        var screen = Toolkit.getDefaultToolkit().getScreenSize();
+        var scale = Math.min(MAX_SCREEN_RATIO * screen.width / frame.width(),
+                MAX_SCREEN_RATIO * screen.height / frame.height());
+        return new Dimension((int) (frame.width() * scale), (int) (frame.height() * scale));
+    }
+
+    private void bindKey(int keyCode, String name, Runnable action) {
+        var rootPane = getRootPane();
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        rootPane.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+
+    // 表示する画像を差し替える
+    private void setFrame(ViewerFrameLoader.Frame frame) {
+        if (imageComponent != null) {
+            getContentPane().remove(imageComponent);
+        }
+        if (tiledView != null) {
+            tiledView.close();
+            tiledView = null;
+        }
+        currentPath = frame.path();
+        shownPath = frame.path();
+
+        if (frame.isTiled()) {
+            tiledView = new TiledImageView(frame.path(), frame.width(), frame.height());
+            imageComponent = tiledView;
+        } else {
+            // 表示サイズに合わせた縮小は ScaledImageView に任せる
+            imageComponent = new ScaledImageView(frame.image());
+        }
+        getContentPane().add(imageComponent, BorderLayout.CENTER);
+
+        var mouseHandler = createMouseHandler((double) frame.width() / frame.height());
+        imageComponent.addMouseListener(mouseHandler);
+        imageComponent.addMouseMotionListener(mouseHandler);
+        imageComponent.addMouseWheelListener(mouseHandler);
+    }
+
+    private void step(int offset) {
+        var path = neighbor.apply(currentPath, offset);
+        if (path == null) {
+            Toolkit.getDefaultToolkit().beep();
+            return;
+        }
+        // 押し続けたときも読み込みを待たずに先へ進めるよう、表示するパスは先に進めておく
+        currentPath = path;
+        var gen = ++generation;
+        session.load(path, neighbors(path)).whenComplete((frame, ex) -> SwingUtilities.invokeLater(() -> {
+            if (gen != generation || !isDisplayable()) return;
+            if (ex != null) {
+                // 表示中の画像から移動し直せるように戻す
+                currentPath = shownPath;
+                if (ex instanceof CancellationException) {
+                    // 読み込み中に削除・上書きされた
+                    Toolkit.getDefaultToolkit().beep();
+                } else {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(this,
+                            path.getFileName() + " を表示できませんでした: " + ex.getMessage());
+                }
+                return;
+            }
+            showFrame(frame);
+        }));
+    }
+
+    private void showFrame(ViewerFrameLoader.Frame frame) {
+        // ウィンドウの中心を保ち、今の大きさに収まるようにする（元の大きさより大きくはしない）
+        var center = new Point(getX() + getWidth() / 2, getY() + getHeight() / 2);
+        var natural = initialSize(frame);
+        var scale = Math.min(1.0, Math.min((double) getWidth() / natural.width,
+                (double) getHeight() / natural.height));
+        var width = Math.max(100, (int) (natural.width * scale));
+        var height = Math.max(1, (int) (width * frame.height() / (double) frame.width()));
+
+        setFrame(frame);
+        setBounds(center.x - width / 2, center.y - height / 2, width, height);
+        validate();
+        repaint();
+    }
+
+    private void prefetchAround(Path path) {
+        session.load(path, neighbors(path));
+    }
+
+    // 先読みする前後の画像。進む方向を優先して近いものから並べる
+    private List<Path> neighbors(Path path) {
+        var paths = new ArrayList<Path>();
+        for (var i = 1; i <= prefetchCount; i++) {
+            var next = neighbor.apply(path, i);
+            if (next != null) paths.add(next);
+            var previous = neighbor.apply(path, -i);
+            if (previous != null) paths.add(previous);
+        }
+        return paths;
+    }
+
+    private MouseAdapter createMouseHandler(double aspect) {
+        return new MouseAdapter() {
+            private Point mouseDownCoords = null;
+            private Point lastDragPoint = null;
+            private boolean resizing = false;
+            private boolean panning = false;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                var c = e.getComponent();
+                var size = c.getSize();
+                var p = e.getPoint();
+
+                // 右下かどうか
+                resizing = p.x >= size.width - RESIZE_MARGIN && p.y >= size.height - RESIZE_MARGIN;
+                // 拡大表示中のタイル表示はドラッグで表示範囲を動かす
+                panning = !resizing && tiledView != null && !tiledView.isFitted();
+
+                if (panning) {
+                    lastDragPoint = p;
+                } else if (!resizing) {
+                    mouseDownCoords = SwingUtilities.convertPoint(c, p, ImageViewerWindow.this); // 親ウィンドウ基準に変換
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (resizing) {
+                    var p = e.getPoint();
+
+                    // マウスの位置を元に仮の幅と高さを計算（縦横比維持）
+                    var newWidth = Math.max(100, p.x);
+                    var newHeight = (int) (newWidth / aspect);
+
+                    // ウィンドウに反映（画像の縮小は表示側で行う）
+                    setSize(newWidth, newHeight);
+                    validate();
+                } else if (panning) {
+                    var p = e.getPoint();
+                    tiledView.panBy(p.x - lastDragPoint.x, p.y - lastDragPoint.y);
+                    lastDragPoint = p;
+                } else if (mouseDownCoords != null) {
+                    // ウィンドウ移動処理
+                    var currCoords = e.getLocationOnScreen();
+                    setLocation(currCoords.x - mouseDownCoords.x, currCoords.y - mouseDownCoords.y);
+                }
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                var c = e.getComponent();
+                var size = c.getSize();
+                if (e.getX() >= size.width - RESIZE_MARGIN && e.getY() >= size.height - RESIZE_MARGIN) {
+                    c.setCursor(Cursor.getPredefinedCursor(Cursor.SE_RESIZE_CURSOR));
+                } else {
+                    c.setCursor(Cursor.getDefaultCursor());
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (tiledView != null) {
+                    // ホイールでマウス位置を中心に拡大・縮小
+                    tiledView.zoomAt(e.getPoint(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
+                    dispose();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void dispose() {
+        session.close();
+        if (tiledView != null) {
+            tiledView.close();
+        }
+        super.dispose();
+    }
+}
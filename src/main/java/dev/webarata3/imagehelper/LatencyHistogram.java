@@ -0,0 +1,110 @@
+package dev.webarata3.imagehelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 処理時間（ナノ秒）の分布を記録する
+// 2 のべき乗ごとの区間をさらに 4 つに分けて数えるので、百分位数の誤差は 25% 以内
+class LatencyHistogram implements LatencyMXBean {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKET_COUNT = 62 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) return;
+
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // 開始時刻（System.nanoTime()）からの経過時間を記録する
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        var exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        var sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKET_COUNT - 1, SUB_BUCKETS * (exponent - 1) + sub);
+    }
+
+    // 区間の中央の値
+    private static double bucketMiddle(int index) {
+        if (index < SUB_BUCKETS) return index;
+        var exponent = index / SUB_BUCKETS + 1;
+        var sub = index % SUB_BUCKETS;
+        var width = Math.scalb(1.0, exponent - 2);
+        return (SUB_BUCKETS + sub + 0.5) * width;
+    }
+
+    double percentileNanos(double p) {
+        var total = count.sum();
+        if (total == 0) return 0;
+
+        var rank = Math.max(1, (long) Math.ceil(p * total));
+        var seen = 0L;
+        for (var i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(bucketMiddle(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        var total = count.sum();
+        return total == 0 ? 0 : sum.sum() / 1e6 / total;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileNanos(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return percentileNanos(0.90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (var i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
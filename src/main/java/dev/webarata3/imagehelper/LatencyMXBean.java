@@ -0,0 +1,18 @@
+package dev.webarata3.imagehelper;
+
+// JMX で公開する処理時間の統計
+public interface LatencyMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
@@ -0,0 +1,189 @@
+package dev.webarata3.imagehelper;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// 処理時間やキャッシュのヒット率などを集めて JMX と統計ウィンドウに公開する
+class Metrics {
+    private static final String DOMAIN = "dev.webarata3.imagehelper";
+
+    // サムネイル用の元画像のデコード（間引き読み込み）
+    static final LatencyHistogram DECODE = new LatencyHistogram("decode");
+    // サムネイルへの縮小
+    static final LatencyHistogram SCALE = new LatencyHistogram("scale");
+    // キャプチャーの PNG 変換
+    static final LatencyHistogram ENCODE = new LatencyHistogram("encode");
+    // 画面の取り込み
+    static final LatencyHistogram CAPTURE = new LatencyHistogram("capture");
+    // フォルダーの列挙（1 回分）
+    static final LatencyHistogram FOLDER_SCAN = new LatencyHistogram("folderScan");
+    // ビューアーで表示する画像の読み込み（画面に収まる大きさへの縮小を含む）
+    static final LatencyHistogram VIEWER_DECODE = new LatencyHistogram("viewerDecode");
+    // ビューアーの高画質な縮小
+    static final LatencyHistogram VIEWER_RESCALE = new LatencyHistogram("viewerRescale");
+    // 大きな画像のタイルの読み込み
+    static final LatencyHistogram TILE_DECODE = new LatencyHistogram("tileDecode");
+    // EDT にイベントを投げてから実行されるまでの時間
+    static final LatencyHistogram EDT_DELAY = new LatencyHistogram("edtDelay");
+    // 比較する画像の読み込み（縮小せずに読むので、サムネイルのデコードとは分けて記録する）
+    static final LatencyHistogram DIFF_DECODE = new LatencyHistogram("diffDecode");
+    // 2 枚の画像の差分の計算
+    static final LatencyHistogram DIFF = new LatencyHistogram("diff");
+    // サムネイルの並び順と絞り込みの適用
+    static final LatencyHistogram FILTER = new LatencyHistogram("filter");
+    // プロセスの開始からメインウィンドウが最初に描画されるまで
+    static final LatencyHistogram FIRST_PAINT = new LatencyHistogram("firstPaint");
+    // サムネイル一覧の 1 回の描画
+    static final LatencyHistogram GRID_PAINT = new LatencyHistogram("gridPaint");
+
+    static final List<LatencyHistogram> HISTOGRAMS = List.of(DECODE, SCALE, ENCODE, CAPTURE, FOLDER_SCAN,
+            VIEWER_DECODE, VIEWER_RESCALE, TILE_DECODE, EDT_DELAY, DIFF_DECODE, DIFF, FILTER, FIRST_PAINT, GRID_PAINT);
+
+    // 60 fps で描くための 1 フレームの時間
+    private static final long FRAME_BUDGET_NANOS = 16_666_667;
+
+    private record HitCounter(LongSupplier hits, LongSupplier misses) {
+    }
+
+    private static final Map<String, HitCounter> caches = new ConcurrentHashMap<>();
+    private static final Map<String, IntSupplier> queues = new ConcurrentHashMap<>();
+
+    private static volatile int lastScanFileCount = 0;
+    private static final LongAdder totalFilesScanned = new LongAdder();
+    private static final LongAdder edtStallCount = new LongAdder();
+    private static final AtomicLong edtLongestStallNanos = new AtomicLong();
+    private static final LongAdder slowGridPaintCount = new LongAdder();
+
+    private static boolean registered = false;
+
+    private Metrics() {
+    }
+
+    // ヒット率を公開するキャッシュを登録する。同じ名前なら置き換える
+    static void registerCache(String name, LongSupplier hits, LongSupplier misses) {
+        caches.put(name, new HitCounter(hits, misses));
+    }
+
+    // 処理待ちの数を公開するキューを登録する。同じ名前なら置き換える
+    static void registerQueue(String name, IntSupplier depth) {
+        queues.put(name, depth);
+    }
+
+    static void recordScan(int fileCount, long nanos) {
+        lastScanFileCount = fileCount;
+        totalFilesScanned.add(fileCount);
+        FOLDER_SCAN.record(nanos);
+    }
+
+    static void recordEdtStall(long nanos) {
+        edtStallCount.increment();
+        edtLongestStallNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    static void recordGridPaint(long nanos) {
+        GRID_PAINT.record(nanos);
+        if (nanos > FRAME_BUDGET_NANOS) {
+            slowGridPaintCount.increment();
+        }
+    }
+
+    static Map<String, Double> cacheHitRatios() {
+        var ratios = new TreeMap<String, Double>();
+        caches.forEach((name, counter) -> {
+            var hits = counter.hits().getAsLong();
+            var total = hits + counter.misses().getAsLong();
+            ratios.put(name, total == 0 ? 0.0 : (double) hits / total);
+        });
+        return ratios;
+    }
+
+    static Map<String, Integer> queueDepths() {
+        var depths = new TreeMap<String, Integer>();
+        queues.forEach((name, depth) -> depths.put(name, depth.getAsInt()));
+        return depths;
+    }
+
+    // プラットフォームの MBean サーバーに登録する（jconsole などから見られる）
+    static synchronized void registerMBeans() {
+        if (registered) return;
+        registered = true;
+
+        var server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (var histogram : HISTOGRAMS) {
+                server.registerMBean(histogram,
+                        new ObjectName(DOMAIN + ":type=Latency,name=" + histogram.name()));
+            }
+            server.registerMBean(new Stats(), new ObjectName(DOMAIN + ":type=Stats"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 統計ウィンドウに表示する文字列
+    static String report() {
+        var sb = new StringBuilder();
+        sb.append(String.format("%-14s %8s %9s %9s %9s %9s%n", "処理時間 (ms)", "件数", "p50", "p90", "p99", "最大"));
+        for (var h : HISTOGRAMS) {
+            sb.append(String.format("%-14s %8d %9.2f %9.2f %9.2f %9.2f%n", h.name(), h.getCount(), h.getP50Millis(),
+                    h.getP90Millis(), h.getP99Millis(), h.getMaxMillis()));
+        }
+        sb.append(String.format("%nキャッシュのヒット率%n"));
+        cacheHitRatios().forEach((name, ratio) -> sb.append(String.format("  %-14s %6.1f%%%n", name, ratio * 100)));
+        sb.append(String.format("%n処理待ち%n"));
+        queueDepths().forEach((name, depth) -> sb.append(String.format("  %-14s %6d%n", name, depth)));
+        sb.append(String.format("%nフォルダー走査: 前回 %d 件, 累計 %d 件%n", lastScanFileCount, totalFilesScanned.sum()));
+        sb.append(String.format("EDT の停止: %d 回, 最長 %.1f ms%n", edtStallCount.sum(),
+                edtLongestStallNanos.get() / 1e6));
+        sb.append(String.format("サムネイル一覧の描画: %d 回中 %d 回が %.1f ms 超%n", GRID_PAINT.getCount(),
+                slowGridPaintCount.sum(), FRAME_BUDGET_NANOS / 1e6));
+        return sb.toString();
+    }
+
+    private static class Stats implements StatsMXBean {
+        @Override
+        public Map<String, Double> getCacheHitRatios() {
+            return cacheHitRatios();
+        }
+
+        @Override
+        public Map<String, Integer> getQueueDepths() {
+            return queueDepths();
+        }
+
+        @Override
+        public int getLastScanFileCount() {
+            return lastScanFileCount;
+        }
+
+        @Override
+        public long getTotalFilesScanned() {
+            return totalFilesScanned.sum();
+        }
+
+        @Override
+        public long getEdtStallCount() {
+            return edtStallCount.sum();
+        }
+
+        @Override
+        public double getEdtLongestStallMillis() {
+            return edtLongestStallNanos.get() / 1e6;
+        }
+
+        @Override
+        public long getSlowGridPaintCount() {
+            return slowGridPaintCount.sum();
+        }
+    }
+}
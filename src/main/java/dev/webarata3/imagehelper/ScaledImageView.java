@@ -0,0 +1,155 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+// 画像を縦横比を保ってコンポーネントの大きさに合わせて表示する
+// サイズ変更中は縮小済みの画像を速い補間で描き、変更が落ち着いたらバックグラウンドできれいに縮小し直す
+class ScaledImageView extends JComponent {
+    // サイズ変更が止まってから高画質で縮小し直すまでの時間
+    private static final int SETTLE_MILLIS = 150;
+    // 縮小版を作る最小の長辺
+    private static final int MIN_MIP_SIZE = 128;
+
+    // ウィンドウをまたいで 1 スレッドで縮小処理する
+    private static final ExecutorService RESCALER = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "viewer-rescaler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 元画像とそれを半分ずつ縮小した画像（EDT からのみ触る）
+    private final List<BufferedImage> mipLevels = new ArrayList<>();
+    private BufferedImage scaled;
+    private int generation = 0;
+    private final Timer settleTimer;
+
+    ScaledImageView(BufferedImage image) {
+        mipLevels.add(image);
+        setOpaque(true);
+        setBackground(Color.BLACK);
+
+        settleTimer = new Timer(SETTLE_MILLIS, e -> rescale());
+        settleTimer.setRepeats(false);
+
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                // 高画質版はサイズが合わなくなったので作り直しを予約する
+                generation++;
+                settleTimer.restart();
+            }
+        });
+
+        RESCALER.execute(() -> {
+            var levels = buildMipLevels(image);
+            SwingUtilities.invokeLater(() -> {
+                mipLevels.addAll(levels);
+                repaint();
+            });
+        });
+    }
+
+    BufferedImage getImage() {
+        return mipLevels.get(0);
+    }
+
+    private static List<BufferedImage> buildMipLevels(BufferedImage image) {
+        var levels = new ArrayList<BufferedImage>();
+        var current = image;
+        while (Math.max(current.getWidth(), current.getHeight()) / 2 >= MIN_MIP_SIZE) {
+            current = Thumbnails.scaleTo(current, current.getWidth() / 2, current.getHeight() / 2);
+            levels.add(current);
+        }
+        return levels;
+    }
+
+    // 表示する大きさ以上で一番小さい縮小版
+    private BufferedImage nearestLevel(int width, int height) {
+        var best = mipLevels.get(0);
+        for (var level : mipLevels) {
+            if (level.getWidth() < width || level.getHeight() < height) break;
+            best = level;
+        }
+        return best;
+    }
+
+    // 縦横比を保ってコンポーネントに収まる表示サイズ
+    private Dimension displaySize() {
+        var image = getImage();
+        var scale = Math.min((double) getWidth() / image.getWidth(), (double) getHeight() / image.getHeight());
+        return new Dimension(Math.max(1, (int) (image.getWidth() * scale)),
+                Math.max(1, (int) (image.getHeight() * scale)));
+    }
+
+    private void rescale() {
+        if (getWidth() <= 0 || getHeight() <= 0) return;
+
+        var gen = generation;
+        var size = displaySize();
+        var width = size.width;
+        var height = size.height;
+        var source = nearestLevel(width, height);
+        if (source.getWidth() == width && source.getHeight() == height) {
+            scaled = source;
+            repaint();
+            return;
+        }
+
+        RESCALER.execute(() -> {
+            var start = System.nanoTime();
+            var result = Thumbnails.scaleTo(source, width, height);
+            Metrics.VIEWER_RESCALE.recordSince(start);
+            SwingUtilities.invokeLater(() -> {
+                // 縮小している間にさらにサイズが変わっていたら捨てる
+                if (gen == generation) {
+                    scaled = result;
+                    repaint();
+                }
+            });
+        });
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        var g = (Graphics2D) graphics;
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+
+        if (getWidth() <= 0 || getHeight() <= 0) return;
+
+        var size = displaySize();
+        var width = size.width;
+        var height = size.height;
+        var x = (getWidth() - width) / 2;
+        var y = (getHeight() - height) / 2;
+
+        if (scaled != null && scaled.getWidth() == width && scaled.getHeight() == height) {
+            // 高画質版はそのまま転送するだけ
+            g.drawImage(scaled, x, y, null);
+        } else {
+            // 近い大きさの縮小版から速い補間で描く
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(nearestLevel(width, height), x, y, width, height, null);
+        }
+        paintOverlay(g, x, y, width, height);
+    }
+
+    // 画像の上に重ねて描くもの。x, y, width, height は画像を描いた範囲
+    protected void paintOverlay(Graphics2D g, int x, int y, int width, int height) {
+    }
+}
@@ -0,0 +1,23 @@
+package dev.webarata3.imagehelper;
+
+import java.util.Map;
+
+// JMX で公開するキャッシュ・キュー・フォルダー走査・EDT の状態
+public interface StatsMXBean {
+    // キャッシュの名前ごとのヒット率（0.0 ～ 1.0）
+    Map<String, Double> getCacheHitRatios();
+
+    // キューの名前ごとの処理待ちの数
+    Map<String, Integer> getQueueDepths();
+
+    int getLastScanFileCount();
+
+    long getTotalFilesScanned();
+
+    long getEdtStallCount();
+
+    double getEdtLongestStallMillis();
+
+    // 1 フレームの時間（16.7 ms）を超えたサムネイル一覧の描画の回数
+    long getSlowGridPaintCount();
+}
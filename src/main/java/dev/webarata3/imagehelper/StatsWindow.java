@@ -0,0 +1,38 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Font;
+
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+// Metrics の内容を定期的に表示するウィンドウ
+class StatsWindow extends JDialog {
+    private static final int REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final Timer refreshTimer;
+
+    StatsWindow(JFrame owner) {
+        super(owner, "統計情報", false);
+
+        var text = new JTextArea(Metrics.report(), 24, 64);
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        getContentPane().add(new JScrollPane(text));
+
+        refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, e -> text.setText(Metrics.report()));
+        refreshTimer.start();
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        super.dispose();
+    }
+}
@@ -0,0 +1,251 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+// 表示サイズに縮小済みのサムネイルを、画面と同じ形式の大きな画像（ページ）に詰めて保持する
+// 描画は縮小も形式の変換も無い、ページからの矩形の転送だけになる
+// 枠は画面の画素（HiDPI では論理サイズに倍率を掛けた大きさ）で持ち、転送時に拡大されないようにする
+// ページは VolatileImage（ビデオメモリ）に置き、中身が失われたら同じ形式の BufferedImage の控えから戻す
+// 入りきらなくなったら最後に描いたのが古いものから捨てる。EDT からのみ使う
+class ThumbnailAtlas {
+    private static final int PAGE_SIZE = 1024;
+    private static final int MAX_PAGES = 8;
+
+    private static final class Page {
+        final BufferedImage backing;
+        VolatileImage volatileImage;
+
+        Page(BufferedImage backing) {
+            this.backing = backing;
+        }
+    }
+
+    private static final class Slot {
+        final Page page;
+        final int x;
+        final int y;
+        // 描いたときの元のサムネイル。別の画像（別のレベルや読み込み直したもの）になったら描き直す
+        WeakReference<Image> source;
+        int width;
+        int height;
+        long lastFrame;
+
+        Slot(Page page, int x, int y) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private Color background;
+    private GraphicsConfiguration configuration;
+    // 論理座標から画面の画素への倍率。回転などが入っていてページを使えないときは 0
+    private double scale;
+    // 1 つの枠の一辺（サムネイルの表示サイズを画面の画素にしたもの）
+    private int slotSize;
+    private final List<Page> pages = new ArrayList<>();
+    private final LinkedHashMap<Path, Slot> slots = new LinkedHashMap<>(256, 0.75f, true);
+    private final Deque<Slot> freeSlots = new ArrayDeque<>();
+    private long frame = 0;
+    // 統計用に他のスレッドからも読む
+    private volatile long hitCount = 0;
+    private volatile long missCount = 0;
+
+    // 1 フレームの描画の始まりに呼ぶ。そのフレームで描いた枠は捨てない
+    // thumbnailSize: サムネイルの表示サイズ（論理座標）
+    // background: 透明な部分はこの色に重ねておく（グリッドの背景色）
+    void beginFrame(Graphics2D g, int thumbnailSize, Color background) {
+        var configuration = g.getDeviceConfiguration();
+        var scale = deviceScale(g.getTransform());
+        var slotSize = (int) Math.ceil(thumbnailSize * scale);
+        if (configuration != this.configuration || scale != this.scale || slotSize != this.slotSize
+                || !Objects.equals(background, this.background)) {
+            // 画面・倍率・表示サイズ・背景色が変わったので作り直す
+            clear();
+            this.configuration = configuration;
+            this.scale = scale;
+            this.slotSize = slotSize;
+            this.background = background;
+        }
+        frame++;
+    }
+
+    // 縦横同じ倍率と平行移動だけなら、その倍率。それ以外は 0
+    private static double deviceScale(AffineTransform transform) {
+        var type = transform.getType() & ~AffineTransform.TYPE_TRANSLATION;
+        if (type != AffineTransform.TYPE_IDENTITY && type != AffineTransform.TYPE_UNIFORM_SCALE) return 0;
+        var scale = transform.getScaleX();
+        return scale > 0 ? scale : 0;
+    }
+
+    // thumbnail を width x height に縮小したものを (x, y) に描く（どれも論理座標）
+    void draw(Graphics2D g, Path path, Image thumbnail, int x, int y, int width, int height) {
+        if (scale == 0 || slotSize > PAGE_SIZE) {
+            // ページを使えないので、そのまま縮小して描く
+            g.drawImage(thumbnail, x, y, width, height, null);
+            return;
+        }
+        // 画面の画素での位置と大きさ
+        var transform = g.getTransform();
+        var left = (int) Math.round(transform.getTranslateX() + x * scale);
+        var top = (int) Math.round(transform.getTranslateY() + y * scale);
+        var deviceWidth = Math.min(slotSize, (int) Math.round(transform.getTranslateX() + (x + width) * scale) - left);
+        var deviceHeight = Math.min(slotSize, (int) Math.round(transform.getTranslateY() + (y + height) * scale) - top);
+
+        var slot = slots.get(path);
+        if (slot == null || slot.source.get() != thumbnail || slot.width != deviceWidth
+                || slot.height != deviceHeight) {
+            missCount++;
+            if (slot == null) {
+                slot = allocate(path);
+                if (slot == null) {
+                    // 表示中の枠だけで一杯なので、ページを使わずに描く
+                    g.drawImage(thumbnail, x, y, width, height, null);
+                    return;
+                }
+            }
+            render(slot, thumbnail, deviceWidth, deviceHeight);
+        } else {
+            hitCount++;
+        }
+        slot.lastFrame = frame;
+
+        // 倍率を外して画面の画素のまま転送する
+        var image = pageImage(slot.page);
+        g.setTransform(new AffineTransform());
+        g.drawImage(image, left, top, left + deviceWidth, top + deviceHeight, slot.x, slot.y, slot.x + deviceWidth,
+                slot.y + deviceHeight, null);
+        g.setTransform(transform);
+    }
+
+    void remove(Path path) {
+        var slot = slots.remove(path);
+        if (slot != null) {
+            freeSlots.add(slot);
+        }
+    }
+
+    void clear() {
+        for (var page : pages) {
+            if (page.volatileImage != null) {
+                page.volatileImage.flush();
+            }
+        }
+        pages.clear();
+        slots.clear();
+        freeSlots.clear();
+    }
+
+    private Slot allocate(Path path) {
+        var slot = freeSlots.poll();
+        if (slot == null && pages.size() < MAX_PAGES) {
+            addPage();
+            slot = freeSlots.poll();
+        }
+        if (slot == null) {
+            // 一番古い枠を使い回す。このフレームで描いたものしか無ければ諦める
+            var it = slots.values().iterator();
+            if (!it.hasNext()) return null;
+            var eldest = it.next();
+            if (eldest.lastFrame == frame) return null;
+            it.remove();
+            slot = eldest;
+        }
+        slots.put(path, slot);
+        return slot;
+    }
+
+    private void addPage() {
+        var backing = configuration.createCompatibleImage(PAGE_SIZE, PAGE_SIZE, Transparency.OPAQUE);
+        var page = new Page(backing);
+        pages.add(page);
+        var perRow = PAGE_SIZE / slotSize;
+        for (var row = 0; row < perRow; row++) {
+            for (var column = 0; column < perRow; column++) {
+                freeSlots.add(new Slot(page, column * slotSize, row * slotSize));
+            }
+        }
+    }
+
+    // 縮小と形式の変換はここで 1 度だけ行う
+    private void render(Slot slot, Image thumbnail, int width, int height) {
+        var g = slot.page.backing.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.setColor(background);
+        g.fillRect(slot.x, slot.y, slotSize, slotSize);
+        g.drawImage(thumbnail, slot.x, slot.y, width, height, null);
+        g.dispose();
+        slot.source = new WeakReference<>(thumbnail);
+        slot.width = width;
+        slot.height = height;
+
+        var volatileImage = slot.page.volatileImage;
+        if (volatileImage != null && !volatileImage.contentsLost()) {
+            var vg = volatileImage.createGraphics();
+            vg.drawImage(slot.page.backing, slot.x, slot.y, slot.x + slotSize, slot.y + slotSize, slot.x, slot.y,
+                    slot.x + slotSize, slot.y + slotSize, null);
+            vg.dispose();
+        }
+    }
+
+    // 転送元にする画像。ビデオメモリに置けないか失われたときは控えを使う
+    private Image pageImage(Page page) {
+        if (page.volatileImage == null) {
+            page.volatileImage = createVolatile();
+            if (page.volatileImage == null) return page.backing;
+            restore(page);
+        }
+        var status = page.volatileImage.validate(configuration);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            page.volatileImage.flush();
+            page.volatileImage = createVolatile();
+            if (page.volatileImage == null) return page.backing;
+            restore(page);
+        } else if (status == VolatileImage.IMAGE_RESTORED) {
+            restore(page);
+        }
+        return page.volatileImage.contentsLost() ? page.backing : page.volatileImage;
+    }
+
+    private VolatileImage createVolatile() {
+        // 画面に表示していないとき（画像への描画など）はビデオメモリを使わない
+        if (configuration.getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN) return null;
+        try {
+            return configuration.createCompatibleVolatileImage(PAGE_SIZE, PAGE_SIZE, Transparency.OPAQUE);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void restore(Page page) {
+        var g = page.volatileImage.createGraphics();
+        g.drawImage(page.backing, 0, 0, null);
+        g.dispose();
+    }
+
+    long hitCount() {
+        return hitCount;
+    }
+
+    long missCount() {
+        return missCount;
+    }
+}
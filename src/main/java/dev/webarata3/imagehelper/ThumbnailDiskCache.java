@@ -0,0 +1,273 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+// サムネイルをディスクに保存するキャッシュ
+// ファイル名は「パスのハッシュ-レベル-サイズ-更新日時.png」とし、元画像が変わったら古いものは削除する
+// 容量を超えたら最後に使われた日時が古いものから削除する
+// 起動を遅らせないように索引（キャッシュディレクトリの一覧）はバックグラウンドで読み、使うときに完了を待つ
+class ThumbnailDiskCache {
+    private record Entry(String fileName, long bytes) {
+    }
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    // 「パスのハッシュ-レベル」 → エントリ（アクセス順）
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final CountDownLatch indexLoaded = new CountDownLatch(1);
+
+    ThumbnailDiskCache(Path cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        var loader = new Thread(() -> {
+            try {
+                loadIndex();
+            } finally {
+                indexLoaded.countDown();
+            }
+        }, "thumbnail-cache-index");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    static ThumbnailDiskCache openDefault(long maxBytes) {
+        return new ThumbnailDiskCache(AppDirs.cacheDir().resolve("thumbnails"), maxBytes);
+    }
+
+    // キャッシュ済みのサムネイルを返す。無いか元画像が変更されていれば null
+    BufferedImage get(Path source, int level) {
+        var image = peek(source, level);
+        if (image != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return image;
+    }
+
+    // get() と同じだがヒット率には数えない（別のレベルの代わりを探すときなど）
+    BufferedImage peek(Path source, int level) {
+        awaitIndex();
+        String key;
+        String fileName;
+        try {
+            var attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            key = key(source, level);
+            fileName = fileName(key, attrs);
+        } catch (IOException e) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) return null;
+            if (!entry.fileName().equals(fileName)) {
+                // 元画像が変わっているので古いサムネイルは捨てる
+                removeEntry(key, entry);
+                return null;
+            }
+        }
+
+        var file = cacheDir.resolve(fileName);
+        try {
+            var image = ImageIO.read(file.toFile());
+            if (image == null) {
+                synchronized (this) {
+                    removeEntry(key, entry);
+                }
+                return null;
+            }
+            // 再起動後も LRU の順番がわかるように更新日時を使用日時として記録する
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return image;
+        } catch (IOException e) {
+            synchronized (this) {
+                removeEntry(key, entry);
+            }
+            return null;
+        }
+    }
+
+    // 元画像が変更されていない level のサムネイルがあるか（画像は読まない）
+    boolean contains(Path source, int level) {
+        awaitIndex();
+        try {
+            var attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            var key = key(source, level);
+            var fileName = fileName(key, attrs);
+            synchronized (this) {
+                var entry = entries.get(key);
+                return entry != null && entry.fileName().equals(fileName);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void put(Path source, int level, BufferedImage thumbnail) {
+        awaitIndex();
+        try {
+            var attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            var key = key(source, level);
+            var fileName = fileName(key, attrs);
+
+            Files.createDirectories(cacheDir);
+            var tmp = Files.createTempFile(cacheDir, key, ".tmp");
+            try {
+                if (!ImageIO.write(thumbnail, "png", tmp.toFile())) return;
+                Files.move(tmp, cacheDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+
+            var bytes = Files.size(cacheDir.resolve(fileName));
+            synchronized (this) {
+                var old = entries.get(key);
+                if (old != null) {
+                    if (old.fileName().equals(fileName)) {
+                        totalBytes -= old.bytes();
+                        entries.remove(key);
+                    } else {
+                        removeEntry(key, old);
+                    }
+                }
+                entries.put(key, new Entry(fileName, bytes));
+                totalBytes += bytes;
+                evict();
+            }
+        } catch (IOException e) {
+            // キャッシュへの保存に失敗しても表示には影響しないので無視する
+        }
+    }
+
+    private void awaitIndex() {
+        try {
+            indexLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void evict() {
+        var it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            var entry = it.next().getValue();
+            it.remove();
+            totalBytes -= entry.bytes();
+            deleteQuietly(cacheDir.resolve(entry.fileName()));
+        }
+    }
+
+    private void removeEntry(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            totalBytes -= entry.bytes();
+        }
+        deleteQuietly(cacheDir.resolve(entry.fileName()));
+    }
+
+    private synchronized void loadIndex() {
+        if (!Files.isDirectory(cacheDir)) return;
+
+        record Found(String key, String fileName, long bytes, long lastUsed) {
+        }
+        var found = new ArrayList<Found>();
+        try (var stream = Files.newDirectoryStream(cacheDir)) {
+            for (var file : stream) {
+                var name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // 書き込み途中で終了したもの
+                    deleteQuietly(file);
+                    continue;
+                }
+                if (!name.endsWith(".png")) continue;
+
+                var parts = name.split("-");
+                if (parts.length != 4) {
+                    // レベルが付いていない古い形式のもの
+                    deleteQuietly(file);
+                    continue;
+                }
+                var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                found.add(new Found(parts[0] + "-" + parts[1], name, attrs.size(),
+                        attrs.lastModifiedTime().toMillis()));
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        // 使用日時の古い順に入れて LRU の順番を復元する
+        found.sort(Comparator.comparingLong(Found::lastUsed));
+        for (var f : found) {
+            var old = entries.put(f.key(), new Entry(f.fileName(), f.bytes()));
+            if (old != null) {
+                totalBytes -= old.bytes();
+                deleteQuietly(cacheDir.resolve(old.fileName()));
+            }
+            totalBytes += f.bytes();
+        }
+        evict();
+    }
+
+    long hitCount() {
+        return hitCount.get();
+    }
+
+    long missCount() {
+        return missCount.get();
+    }
+
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static String key(Path source, int level) {
+        return pathHash(source) + "-" + level;
+    }
+
+    private static String fileName(String key, BasicFileAttributes attrs) {
+        return key + "-" + attrs.size() + "-" + attrs.lastModifiedTime().toMillis() + ".png";
+    }
+
+    private static String pathHash(Path source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1");
+            var bytes = digest.digest(source.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+        }
+    }
+}
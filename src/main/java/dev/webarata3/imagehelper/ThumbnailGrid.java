@@ -0,0 +1,505 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
+
+// サムネイルを格子状に並べて表示するコンポーネント
+// 画像ごとにコンポーネントは作らず、位置は計算で求めて見えている行だけを描画する
+// サムネイル自体は保持せず、描画のたびに ThumbnailSource から取得する
+// 並べ替えや絞り込みでは setPaths() で表示するパスの順列を渡す。一度作ったセルは使い回す
+class ThumbnailGrid extends JComponent implements Scrollable {
+    interface ThumbnailSource {
+        // 読み込み済みのサムネイルを返す。まだ無ければ読み込みを依頼して null を返す
+        // 表示サイズと大きさが違っていてもよい（描画時に拡大・縮小する）
+        Image getThumbnail(Path path);
+    }
+
+    private static final class Cell {
+        final Path path;
+        // 表示していないときは -1
+        int index = -1;
+        boolean selected = false;
+
+        Cell(Path path) {
+            this.path = path;
+        }
+    }
+
+    private static final Color PLACEHOLDER_COLOR = new Color(220, 220, 220);
+    private static final Color SELECTED_COLOR = new Color(255, 0, 0);
+
+    private int thumbnailSize;
+    private final ThumbnailSource thumbnailSource;
+    private final int gap;
+    private final List<Cell> cells = new ArrayList<>();
+    private final Map<Path, Cell> cellsByPath = new HashMap<>();
+    // ヘッダーから読んだ元画像のサイズ（プレースホルダーの形とツールチップに使う）
+    private final Map<Path, Dimension> imageSizes = new HashMap<>();
+    // 表示サイズに縮小したサムネイルを詰めたページ。描画はここからの転送だけで済む
+    private final ThumbnailAtlas atlas = new ThumbnailAtlas();
+    // 選択の起点（Shift でのクリックはここからの範囲を選択する）
+    private Cell anchorCell = null;
+    private Consumer<Path> openListener = path -> {
+    };
+    private Consumer<Path> selectionListener = path -> {
+    };
+
+    ThumbnailGrid(int thumbnailSize, int gap, ThumbnailSource thumbnailSource) {
+        this.thumbnailSize = thumbnailSize;
+        this.thumbnailSource = thumbnailSource;
+        this.gap = gap;
+        setOpaque(true);
+        ToolTipManager.sharedInstance().registerComponent(this);
+
+        // 全セルで共通のマウス処理
+        // Ctrl でのクリックは 1 つずつ選択を切り替え、Shift でのクリックは起点からの範囲を選択する
+        var mouseHandler = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                // 右クリックのメニューは選択中のセルに対して開くので、選択していないセルなら選択し直す
+                if (!SwingUtilities.isRightMouseButton(e)) return;
+
+                var cell = cellAt(e.getPoint());
+                if (cell != null && !cell.selected) {
+                    selectOnly(cell);
+                    selectionListener.accept(cell.path);
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e)) return;
+
+                var cell = cellAt(e.getPoint());
+                if (e.getClickCount() == 2) {
+                    clearSelection();
+                    if (cell != null) {
+                        openListener.accept(cell.path);
+                    }
+                    return;
+                }
+                var toggle = e.isControlDown() || e.isMetaDown();
+                if (cell == null) {
+                    if (!toggle && !e.isShiftDown()) {
+                        clearSelection();
+                    }
+                } else if (e.isShiftDown() && anchorCell != null && anchorCell.index >= 0) {
+                    selectRange(anchorCell, cell, toggle);
+                } else if (toggle) {
+                    cell.selected = !cell.selected;
+                    anchorCell = cell;
+                    repaint(cellBounds(cell.index));
+                } else {
+                    selectOnly(cell);
+                }
+                selectionListener.accept(cell == null ? null : cell.path);
+            }
+        };
+        addMouseListener(mouseHandler);
+    }
+
+    int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    // サムネイルの表示サイズを変える。先頭に見えていたセルが見えたままになるようにスクロールする
+    void setThumbnailSize(int thumbnailSize) {
+        if (this.thumbnailSize == thumbnailSize) return;
+
+        var visible = getVisiblePaths();
+        var anchor = visible.isEmpty() ? null : cellsByPath.get(visible.get(0));
+        this.thumbnailSize = thumbnailSize;
+        relayout();
+        if (anchor != null) {
+            SwingUtilities.invokeLater(() -> {
+                if (anchor.index >= 0) {
+                    var bounds = cellBounds(anchor.index);
+                    scrollRectToVisible(new Rectangle(bounds.x, bounds.y - gap, bounds.width,
+                            Math.max(getVisibleRect().height, bounds.height)));
+                }
+            });
+        }
+    }
+
+    void setOpenListener(Consumer<Path> openListener) {
+        this.openListener = openListener;
+    }
+
+    void setSelectionListener(Consumer<Path> selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    int getCellCount() {
+        return cells.size();
+    }
+
+    // path を表示しているか
+    boolean contains(Path path) {
+        var cell = cellsByPath.get(path);
+        return cell != null && cell.index >= 0;
+    }
+
+    // 表示中のパスを並び順で返す
+    List<Path> getPaths() {
+        var paths = new ArrayList<Path>(cells.size());
+        for (var cell : cells) {
+            paths.add(cell.path);
+        }
+        return paths;
+    }
+
+    // 並び順で path から offset だけ離れたパス。範囲外か path が無ければ null
+    Path getNeighbor(Path path, int offset) {
+        var cell = cellsByPath.get(path);
+        if (cell == null || cell.index < 0) return null;
+
+        var index = cell.index + offset;
+        if (index < 0 || index >= cells.size()) return null;
+        return cells.get(index).path;
+    }
+
+    // 末尾に追加する
+    void addPaths(Collection<Path> paths) {
+        var changed = false;
+        for (var path : paths) {
+            var cell = cellsByPath.computeIfAbsent(path, Cell::new);
+            if (cell.index >= 0) continue;
+
+            cell.index = cells.size();
+            cells.add(cell);
+            changed = true;
+        }
+        if (changed) {
+            relayout();
+        }
+    }
+
+    // 表示するパスを並び順で設定する。含まれないパスは表示しないだけで、セルと画像のサイズは保持しておく
+    // 表示しなくなったセルの選択は外す
+    void setPaths(List<Path> paths) {
+        var previous = new ArrayList<>(cells);
+        for (var cell : previous) {
+            cell.index = -1;
+        }
+        cells.clear();
+        for (var path : paths) {
+            var cell = cellsByPath.computeIfAbsent(path, Cell::new);
+            cell.index = cells.size();
+            cells.add(cell);
+        }
+        for (var cell : previous) {
+            if (cell.index < 0) {
+                cell.selected = false;
+            }
+        }
+        relayout();
+    }
+
+    private void reindex() {
+        for (var i = 0; i < cells.size(); i++) {
+            cells.get(i).index = i;
+        }
+    }
+
+    // 元画像のサイズを設定する。まだ表示していないパスのものも設定できる
+    void setImageSizes(Map<Path, Dimension> sizes) {
+        imageSizes.putAll(sizes);
+        for (var path : sizes.keySet()) {
+            repaintPath(path);
+        }
+    }
+
+    // 元画像のサイズ。わからなければ null
+    Dimension getImageSize(Path path) {
+        return imageSizes.get(path);
+    }
+
+    // 無くなったパスを取り除く
+    void removePaths(Collection<Path> paths) {
+        var removed = new HashSet<Cell>();
+        for (var path : paths) {
+            imageSizes.remove(path);
+            var cell = cellsByPath.remove(path);
+            if (cell != null && cell.index >= 0) {
+                removed.add(cell);
+            }
+        }
+        if (removed.isEmpty()) return;
+
+        // まとめて詰め直すので、何件消しても一度の走査で済む
+        cells.removeIf(removed::contains);
+        for (var cell : removed) {
+            cell.index = -1;
+            cell.selected = false;
+            atlas.remove(cell.path);
+        }
+        reindex();
+        relayout();
+    }
+
+    void clear() {
+        cells.clear();
+        cellsByPath.clear();
+        imageSizes.clear();
+        atlas.clear();
+        anchorCell = null;
+        relayout();
+    }
+
+    // サムネイルが読み込まれたセルだけを再描画する
+    void repaintPath(Path path) {
+        var cell = cellsByPath.get(path);
+        if (cell == null || cell.index < 0) return;
+
+        repaint(cellBounds(cell.index));
+    }
+
+    // 画面に見えているセルのパス
+    List<Path> getVisiblePaths() {
+        var visible = getVisibleRect();
+        var paths = new ArrayList<Path>();
+        if (visible.isEmpty()) return paths;
+
+        var columns = columns();
+        var step = cellSize() + gap;
+        var firstRow = Math.max(0, (visible.y - gap) / step);
+        var lastRow = Math.min(rows(columns) - 1, (visible.y + visible.height - gap) / step);
+        var first = firstRow * columns;
+        var last = Math.min(cells.size(), (lastRow + 1) * columns);
+        for (var i = first; i < last; i++) {
+            paths.add(cells.get(i).path);
+        }
+        return paths;
+    }
+
+    // 選択中のパスを並び順で返す
+    List<Path> getSelectedPaths() {
+        var paths = new ArrayList<Path>();
+        for (var cell : cells) {
+            if (cell.selected) {
+                paths.add(cell.path);
+            }
+        }
+        return paths;
+    }
+
+    void selectAll() {
+        for (var cell : cells) {
+            cell.selected = true;
+        }
+        repaint();
+    }
+
+    void clearSelection() {
+        for (var cell : cells) {
+            cell.selected = false;
+        }
+        anchorCell = null;
+        repaint();
+    }
+
+    private void selectOnly(Cell cell) {
+        for (var c : cells) {
+            c.selected = false;
+        }
+        cell.selected = true;
+        anchorCell = cell;
+        repaint();
+    }
+
+    // from から to までを選択する。add が false なら他の選択は外す。起点は変えない
+    private void selectRange(Cell from, Cell to, boolean add) {
+        if (!add) {
+            for (var c : cells) {
+                c.selected = false;
+            }
+        }
+        var first = Math.min(from.index, to.index);
+        var last = Math.max(from.index, to.index);
+        for (var i = first; i <= last; i++) {
+            cells.get(i).selected = true;
+        }
+        repaint();
+    }
+
+    private void relayout() {
+        revalidate();
+        repaint();
+    }
+
+    // 枠線の 1px を含めたセルの一辺
+    private int cellSize() {
+        return thumbnailSize + 2;
+    }
+
+    private int columns() {
+        var width = getWidth();
+        if (getParent() instanceof JViewport viewport) {
+            width = viewport.getWidth();
+        }
+        return Math.max(1, (width - gap) / (cellSize() + gap));
+    }
+
+    private int rows(int columns) {
+        return (cells.size() + columns - 1) / columns;
+    }
+
+    private Rectangle cellBounds(int index) {
+        var columns = columns();
+        var row = index / columns;
+        var column = index % columns;
+        var step = cellSize() + gap;
+        return new Rectangle(gap + column * step, gap + row * step, cellSize(), cellSize());
+    }
+
+    private Cell cellAt(Point p) {
+        var columns = columns();
+        var step = cellSize() + gap;
+        var column = (p.x - gap) / step;
+        var row = (p.y - gap) / step;
+        if (p.x < gap || p.y < gap || column >= columns) return null;
+        if ((p.x - gap) % step >= cellSize() || (p.y - gap) % step >= cellSize()) return null;
+
+        var index = row * columns + column;
+        return index < cells.size() ? cells.get(index) : null;
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        var cell = cellAt(e.getPoint());
+        if (cell == null) return null;
+
+        var name = cell.path.getFileName().toString();
+        var imageSize = imageSizes.get(cell.path);
+        return imageSize == null ? name : String.format("%s (%d × %d)", name, imageSize.width, imageSize.height);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        var columns = columns();
+        var step = cellSize() + gap;
+        return new Dimension(gap + columns * step, gap + rows(columns) * step);
+    }
+
+    long atlasHitCount() {
+        return atlas.hitCount();
+    }
+
+    long atlasMissCount() {
+        return atlas.missCount();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        var start = System.nanoTime();
+        var clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        // 表示サイズと違う大きさのサムネイルを拡大・縮小して描く（ページに入りきらないとき）
+        ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        atlas.beginFrame((Graphics2D) g, thumbnailSize, getBackground());
+
+        // 描画範囲に入る行だけを描く
+        var columns = columns();
+        var step = cellSize() + gap;
+        var firstRow = Math.max(0, (clip.y - gap) / step);
+        var lastRow = Math.min(rows(columns) - 1, (clip.y + clip.height - gap) / step);
+        for (var row = firstRow; row <= lastRow; row++) {
+            for (var column = 0; column < columns; column++) {
+                var index = row * columns + column;
+                if (index >= cells.size()) break;
+                paintCell(g, cells.get(index), gap + column * step, gap + row * step);
+            }
+        }
+        Metrics.recordGridPaint(System.nanoTime() - start);
+    }
+
+    private void paintCell(Graphics g, Cell cell, int x, int y) {
+        var size = thumbnailSize;
+        var thumbnail = thumbnailSource.getThumbnail(cell.path);
+        var imageSize = imageSizes.get(cell.path);
+        if (thumbnail == null) {
+            // 読み込みが終わるまではプレースホルダーを表示しておく
+            // 元画像のサイズがわかっていれば、サムネイルと同じ形にして読み込み後に形が変わらないようにする
+            g.setColor(PLACEHOLDER_COLOR);
+            if (imageSize == null) {
+                g.fillRect(x + 1, y + 1, size, size);
+            } else {
+                var fit = fit(imageSize.width, imageSize.height, size);
+                g.fillRect(x + 1 + (size - fit.width) / 2, y + 1 + (size - fit.height) / 2, fit.width, fit.height);
+            }
+        } else {
+            // 元画像のサイズがわかっていれば、それを表示サイズに収めた大きさで描く（小さいレベルで代用しているときは拡大する）
+            var fit = imageSize != null ? fit(imageSize.width, imageSize.height, size)
+                    : fit(thumbnail.getWidth(null), thumbnail.getHeight(null), size);
+            atlas.draw((Graphics2D) g, cell.path, thumbnail, x + 1 + (size - fit.width) / 2,
+                    y + 1 + (size - fit.height) / 2, fit.width, fit.height);
+        }
+
+        if (cell.selected) {
+            g.setColor(SELECTED_COLOR);
+            g.drawRect(x, y, size + 1, size + 1);
+        }
+    }
+
+    // 縦横比を保ったまま size x size に収めた大きさ（拡大はしない）
+    private static Dimension fit(int width, int height, int size) {
+        var scale = Math.min(1.0, Math.min((double) size / width, (double) size / height));
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? (cellSize() + gap) / 4 : 10;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? Math.max(visibleRect.height - cellSize(), cellSize())
+                : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        // 親の幅に追従して折り返す
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
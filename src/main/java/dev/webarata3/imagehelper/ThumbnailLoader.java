@@ -0,0 +1,282 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+// サムネイルの読み込みをバックグラウンドで行うクラス
+// 結果は EDT 上でまとめて通知する
+// 元画像から作ったときは、画面に表示中の画像に限って、それより大きいレベルも別のスレッドで作っておく
+// （表示サイズを大きくしても元画像を読まずに済むようにする。スクロールで通り過ぎた画像は作らない）
+class ThumbnailLoader {
+    record Result(Path path, int level, BufferedImage thumbnail, int generation) {
+    }
+
+    private record Key(Path path, int level) {
+    }
+
+    private record Stamp(long size, long lastModified) {
+    }
+
+    private final ThreadPoolExecutor executor;
+    // 大きいレベルを作る処理（表示中の読み込みを邪魔しないように 1 スレッドで優先度を下げる）
+    private final ThreadPoolExecutor pyramidExecutor;
+    private final Consumer<List<Result>> publisher;
+    private final ThumbnailDiskCache diskCache;
+    private final ThumbnailMemoryCache memoryCache;
+    // 読み込み中のパスとレベル（同じ画像を重複して読み込まないように）
+    private final Set<Key> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<Path> pyramidQueued = ConcurrentHashMap.newKeySet();
+    // 画像として読み込めなかったファイルと、そのときのサイズと更新日時
+    private final Map<Path, Stamp> failures = new ConcurrentHashMap<>();
+    // フォルダー切り替えごとに増やし、古い結果を捨てるために使う
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Result> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 表示中のレベル。表示サイズが変わって不要になった読み込み待ちは読み込まない
+    private volatile int displayLevel = Thumbnails.levelFor(Thumbnails.THUMBNAIL_SIZE);
+
+    ThumbnailLoader(ThumbnailMemoryCache memoryCache, ThumbnailDiskCache diskCache,
+            Consumer<List<Result>> publisher) {
+        this.memoryCache = memoryCache;
+        this.diskCache = diskCache;
+        this.publisher = publisher;
+
+        var threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        var threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    var t = new Thread(r, "thumbnail-loader-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                });
+        pyramidExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            var t = new Thread(r, "thumbnail-pyramid");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    // 読み込めなかったときから更新されていなければ true（読み込み直しても失敗するだけなので一覧に出さない）
+    boolean hasFailed(Path path, long size, long lastModified) {
+        return new Stamp(size, lastModified).equals(failures.get(path));
+    }
+
+    int currentGeneration() {
+        return generation.get();
+    }
+
+    // 実行待ちの処理を破棄し、実行中の処理の結果も無視させる
+    void cancelAll() {
+        generation.incrementAndGet();
+        executor.getQueue().clear();
+        pyramidExecutor.getQueue().clear();
+        pending.clear();
+        inFlight.clear();
+        pyramidQueued.clear();
+    }
+
+    // 表示サイズを変えたときに呼ぶ
+    void setDisplayLevel(int level) {
+        displayLevel = level;
+    }
+
+    // level のサムネイルの読み込みを依頼する。読み込み中のものは無視する
+    void request(Path path, int level) {
+        var key = new Key(path, level);
+        if (!inFlight.add(key)) return;
+
+        var gen = generation.get();
+        executor.execute(() -> {
+            try {
+                if (gen != generation.get() || level != displayLevel) return;
+
+                var thumbnail = loadThumbnail(path, level);
+                publish(new Result(path, level, thumbnail, gen));
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    // 元画像が更新されたので読み込み直す
+    // 古いサムネイルは新しいものができるまで表示しておき、キャッシュの有効性は読み込み時に確認する
+    void reload(Path path, int level) {
+        request(path, level);
+    }
+
+    // デコード済みの画像（キャプチャーした画素など）から全てのレベルのサムネイルを作ってキャッシュに入れる
+    // メモリキャッシュには表示中のレベル level だけを入れる
+    void addDecoded(Path path, BufferedImage image, int level) {
+        // 描画時の読み込み依頼でファイルから読み直さないようにする
+        var key = new Key(path, level);
+        inFlight.add(key);
+
+        var gen = generation.get();
+        executor.execute(() -> {
+            try {
+                var attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                var levels = Thumbnails.buildLevels(image, Thumbnails.LEVELS[Thumbnails.LEVELS.length - 1]);
+                levels.forEach((l, thumbnail) -> diskCache.put(path, l, thumbnail));
+                var thumbnail = levels.get(level);
+                memoryCache.put(path, level, attrs.size(), attrs.lastModifiedTime().toMillis(), thumbnail);
+                publish(new Result(path, level, thumbnail, gen));
+            } catch (IOException e) {
+                // 保存直後に削除された場合などは何もしない
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    // メモリ、ディスクの順にキャッシュを探し、無ければ大きいレベルか元画像から作ってキャッシュに保存する
+    // 呼び出したスレッドで読み込むので EDT からは呼ばない
+    BufferedImage loadThumbnail(Path path, int level) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        var size = attrs.size();
+        var lastModified = attrs.lastModifiedTime().toMillis();
+
+        var thumbnail = memoryCache.get(path, level, size, lastModified);
+        if (thumbnail != null) return thumbnail;
+
+        thumbnail = diskCache.get(path, level);
+        if (thumbnail == null) {
+            thumbnail = fromLargerLevel(path, level, size, lastModified);
+            if (thumbnail == null) {
+                try {
+                    thumbnail = Thumbnails.decode(path, level, level);
+                } catch (IOException | RuntimeException e) {
+                    // 壊れた画像ではデコーダーが実行時例外を投げることもある
+                    thumbnail = null;
+                }
+                if (thumbnail == null) {
+                    // 読み込めない画像は null を返し、更新されるまでは読み直さない
+                    failures.put(path, new Stamp(size, lastModified));
+                    return null;
+                }
+                failures.remove(path);
+                requestLargerLevels(path, level);
+            }
+            diskCache.put(path, level, thumbnail);
+        }
+        memoryCache.put(path, level, size, lastModified, thumbnail);
+        return thumbnail;
+    }
+
+    // キャッシュにある大きいレベルを縮小して作る。無ければ null
+    private BufferedImage fromLargerLevel(Path path, int level, long size, long lastModified) {
+        for (var larger : Thumbnails.LEVELS) {
+            if (larger <= level) continue;
+            var image = memoryCache.peek(path, larger, size, lastModified);
+            if (image == null) {
+                image = diskCache.peek(path, larger);
+            }
+            if (image != null) return Thumbnails.scaleToFit(image, level, level);
+        }
+        return null;
+    }
+
+    // level より大きいレベルのうちキャッシュに無いものを、元画像を一度だけデコードして作る
+    private void requestLargerLevels(Path path, int level) {
+        var maxLevel = Thumbnails.LEVELS[Thumbnails.LEVELS.length - 1];
+        if (level >= maxLevel || !pyramidQueued.add(path)) return;
+
+        var gen = generation.get();
+        pyramidExecutor.execute(() -> {
+            try {
+                // 待っている間にスクロールして表示されなくなった画像は作らない
+                if (gen != generation.get() || !memoryCache.isPinned(path)) return;
+
+                var missing = new ArrayList<Integer>();
+                for (var l : Thumbnails.LEVELS) {
+                    if (l > level && !diskCache.contains(path, l)) {
+                        missing.add(l);
+                    }
+                }
+                if (missing.isEmpty()) return;
+
+                var largest = missing.get(missing.size() - 1);
+                var image = Thumbnails.decode(path, largest, largest);
+                if (image == null) return;
+                Thumbnails.buildLevels(image, largest).forEach((l, thumbnail) -> {
+                    if (missing.contains(l)) {
+                        diskCache.put(path, l, thumbnail);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                // 作れなくても表示するときに作り直すだけ
+            } finally {
+                pyramidQueued.remove(path);
+            }
+        });
+    }
+
+    // 読み込み待ちの数
+    int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    // 大きいレベルの作成待ちの数
+    int pyramidQueueDepth() {
+        return pyramidExecutor.getQueue().size();
+    }
+
+    void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+        pyramidExecutor.shutdownNow();
+    }
+
+    private void publish(Result result) {
+        if (result.generation() != generation.get()) return;
+
+        pending.add(result);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        var gen = generation.get();
+        var batch = new ArrayList<Result>();
+        Result result;
+        while ((result = pending.poll()) != null) {
+            if (result.generation() == gen) {
+                batch.add(result);
+            }
+        }
+        if (!batch.isEmpty()) {
+            publisher.accept(batch);
+        }
+    }
+
+    static boolean isImageFile(Path path) {
+        var name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".gif");
+    }
+}
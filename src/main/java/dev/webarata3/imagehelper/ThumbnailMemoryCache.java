@@ -0,0 +1,140 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+// メモリ上のサムネイルキャッシュ。パスとレベル（Thumbnails.LEVELS）ごとに保持する
+// 使用量がバイト数の上限を超えたら最後に使われたのが古いものから捨てる
+// 画面に表示中のもの（pin したもの）は捨てない
+// ヒット率は読み込み（ThumbnailLoader.loadThumbnail）での get() だけで数え、描画のたびの peek() などは数えない
+class ThumbnailMemoryCache {
+    private record Key(Path path, int level) {
+    }
+
+    private record Entry(BufferedImage image, long size, long lastModified, long bytes) {
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private Set<Path> pinned = Set.of();
+    private long totalBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    ThumbnailMemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // 無ければ null。描画時に使い、ヒット率には数えない
+    synchronized BufferedImage peek(Path path, int level) {
+        var entry = entries.get(new Key(path, level));
+        return entry == null ? null : entry.image();
+    }
+
+    // 元画像のサイズと更新日時が一致する場合だけ返す
+    synchronized BufferedImage get(Path path, int level, long size, long lastModified) {
+        var image = peek(path, level, size, lastModified);
+        if (image == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return image;
+    }
+
+    // get() と同じだがヒット率には数えない（別のレベルの代わりを探すときなど）
+    synchronized BufferedImage peek(Path path, int level, long size, long lastModified) {
+        var entry = entries.get(new Key(path, level));
+        if (entry == null || entry.size() != size || entry.lastModified() != lastModified) return null;
+        return entry.image();
+    }
+
+    // level に一番近いレベルのもの（大きいほうを優先する）。読み込みが終わるまでの代わりに表示する
+    // ヒット率には数えない
+    synchronized BufferedImage getNearest(Path path, int level) {
+        BufferedImage smaller = null;
+        for (var l : Thumbnails.LEVELS) {
+            var entry = entries.get(new Key(path, l));
+            if (entry == null) continue;
+            if (l >= level) return entry.image();
+            smaller = entry.image();
+        }
+        return smaller;
+    }
+
+    synchronized void put(Path path, int level, long size, long lastModified, BufferedImage image) {
+        var bytes = (long) image.getWidth() * image.getHeight() * 4;
+        var old = entries.put(new Key(path, level), new Entry(image, size, lastModified, bytes));
+        if (old != null) {
+            totalBytes -= old.bytes();
+        }
+        totalBytes += bytes;
+        evict();
+    }
+
+    // 全てのレベルを捨てる
+    synchronized void remove(Path path) {
+        for (var level : Thumbnails.LEVELS) {
+            var old = entries.remove(new Key(path, level));
+            if (old != null) {
+                totalBytes -= old.bytes();
+            }
+        }
+    }
+
+    // 元画像が変更されていれば全てのレベルを捨てる
+    synchronized void removeIfStale(Path path, long size, long lastModified) {
+        for (var level : Thumbnails.LEVELS) {
+            var entry = entries.get(new Key(path, level));
+            if (entry != null && (entry.size() != size || entry.lastModified() != lastModified)) {
+                remove(path);
+                return;
+            }
+        }
+    }
+
+    // 画面に表示中のパスを設定する
+    synchronized void setPinned(Collection<Path> paths) {
+        pinned = new HashSet<>(paths);
+        evict();
+    }
+
+    synchronized boolean isPinned(Path path) {
+        return pinned.contains(path);
+    }
+
+    private void evict() {
+        var it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            var entry = it.next();
+            if (pinned.contains(entry.getKey().path())) continue;
+
+            it.remove();
+            totalBytes -= entry.getValue().bytes();
+        }
+    }
+
+    synchronized long maxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hitCount() {
+        return hitCount;
+    }
+
+    synchronized long missCount() {
+        return missCount;
+    }
+}
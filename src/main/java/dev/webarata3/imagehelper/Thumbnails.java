@@ -0,0 +1,242 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Dimension;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+// サムネイル用の画像の読み込みと縮小
+class Thumbnails {
+    // サムネイルの一辺の最大値（初期値）
+    static final int THUMBNAIL_SIZE = 100;
+    static final int MIN_THUMBNAIL_SIZE = 64;
+    static final int MAX_THUMBNAIL_SIZE = 512;
+    // キャッシュするサムネイルの大きさ（一辺の最大値）。表示サイズ以上で一番小さいものを縮小して表示する
+    static final int[] LEVELS = { 64, 128, 256, 512 };
+
+    private Thumbnails() {
+    }
+
+    // 表示サイズ size に使うレベル
+    static int levelFor(int size) {
+        for (var level : LEVELS) {
+            if (level >= size) return level;
+        }
+        return LEVELS[LEVELS.length - 1];
+    }
+
+    // image から maxLevel 以下の各レベルのサムネイルを作る（大きいレベルから順に、一つ上のレベルを縮小して作る）
+    static Map<Integer, BufferedImage> buildLevels(BufferedImage image, int maxLevel) {
+        var levels = new TreeMap<Integer, BufferedImage>();
+        var current = image;
+        for (var i = LEVELS.length - 1; i >= 0; i--) {
+            if (LEVELS[i] > maxLevel) continue;
+            current = scaleToFit(current, LEVELS[i], LEVELS[i]);
+            levels.put(LEVELS[i], current);
+        }
+        return levels;
+    }
+
+    // 目的のサイズに近い解像度で間引いて読み込み、縮小したものを返す
+    // 十分な大きさのサムネイルが埋め込まれていれば、元画像はデコードせずにそれを使う
+    // 読み込めない画像の場合は null
+    static BufferedImage decode(Path path, int maxWidth, int maxHeight) throws IOException {
+        if (isJpeg(path)) {
+            try {
+                var start = System.nanoTime();
+                var embedded = EmbeddedThumbnails.read(path, maxWidth, maxHeight);
+                if (embedded != null) {
+                    Metrics.DECODE.recordSince(start);
+                    return scaleToFit(embedded, maxWidth, maxHeight);
+                }
+            } catch (IOException | RuntimeException e) {
+                // 埋め込みのサムネイルが壊れていても元画像は読めることが多いので、元画像から作る
+            }
+        }
+
+        try (var input = ImageIO.createImageInputStream(path.toFile())) {
+            if (input == null) return null;
+
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+
+            var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // ヘッダーだけ読んで元のサイズを得る
+                var width = reader.getWidth(0);
+                var height = reader.getHeight(0);
+
+                // JFIF の拡張セグメントなど、デコーダーが読めるサムネイル
+                var thumbnail = readerThumbnail(reader, width, height, maxWidth, maxHeight);
+                if (thumbnail != null) return thumbnail;
+
+                var start = System.nanoTime();
+                var image = readSubsampled(reader, width, height, maxWidth, maxHeight);
+                Metrics.DECODE.recordSince(start);
+                return scaleToFit(image, maxWidth, maxHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // ビューアーで表示する画像を maxWidth x maxHeight に収まるように読み込む。読み込めない画像の場合は null
+    // 埋め込みのサムネイルは使わず、時間は縮小も含めてサムネイルとは別に記録する
+    static BufferedImage decodeForViewer(Path path, int maxWidth, int maxHeight) throws IOException {
+        var start = System.nanoTime();
+        try (var input = ImageIO.createImageInputStream(path.toFile())) {
+            if (input == null) return null;
+
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+
+            var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                var image = readSubsampled(reader, reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+                var fitted = fit(image, maxWidth, maxHeight);
+                Metrics.VIEWER_DECODE.recordSince(start);
+                return fitted;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage readSubsampled(ImageReader reader, int width, int height, int maxWidth,
+            int maxHeight) throws IOException {
+        var param = reader.getDefaultReadParam();
+        var subsampling = subsampling(width, height, maxWidth, maxHeight);
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return reader.read(0, param);
+    }
+
+    private static BufferedImage readerThumbnail(ImageReader reader, int width, int height, int maxWidth,
+            int maxHeight) {
+        if (!reader.readerSupportsThumbnails()) return null;
+        try {
+            if (!reader.hasThumbnails(0)) return null;
+            // デコードする前にサイズだけで使えるかを確かめる
+            if (!isUsable(reader.getThumbnailWidth(0, 0), reader.getThumbnailHeight(0, 0), width, height, maxWidth,
+                    maxHeight)) {
+                return null;
+            }
+            var start = System.nanoTime();
+            var thumbnail = reader.readThumbnail(0, 0);
+            if (thumbnail == null) return null;
+            Metrics.DECODE.recordSince(start);
+            return scaleToFit(thumbnail, maxWidth, maxHeight);
+        } catch (IOException | RuntimeException e) {
+            // メタデータの解析に失敗しても（APP0 が先頭に無い JPEG など）画像自体は読めることが多い
+            return null;
+        }
+    }
+
+    private static boolean isJpeg(Path path) {
+        var name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    // 埋め込みのサムネイルが縮小後のサイズ以上あり、縦横比が元画像と同じ（黒帯が付いていない）なら使える
+    static boolean isUsable(int thumbnailWidth, int thumbnailHeight, int imageWidth, int imageHeight, int maxWidth,
+            int maxHeight) {
+        if (thumbnailWidth <= 0 || thumbnailHeight <= 0) return false;
+
+        var scale = Math.min(1.0, Math.min((double) maxWidth / imageWidth, (double) maxHeight / imageHeight));
+        var targetWidth = Math.max(1, (int) Math.round(imageWidth * scale));
+        var targetHeight = Math.max(1, (int) Math.round(imageHeight * scale));
+        if (thumbnailWidth < targetWidth || thumbnailHeight < targetHeight) return false;
+
+        var imageAspect = (double) imageWidth / imageHeight;
+        var thumbnailAspect = (double) thumbnailWidth / thumbnailHeight;
+        return Math.abs(thumbnailAspect - imageAspect) / imageAspect < 0.02;
+    }
+
+    // ヘッダーだけを読んで画像のサイズを返す。読み込めない画像の場合は null
+    static Dimension readSize(Path path) throws IOException {
+        try (var input = ImageIO.createImageInputStream(path.toFile())) {
+            if (input == null) return null;
+
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+
+            var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // 縮小後の画質を保つため、目的のサイズの 2 倍以上は残す間引き率
+    static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+        var ratio = Math.min((double) width / (maxWidth * 2), (double) height / (maxHeight * 2));
+        return Math.max(1, (int) ratio);
+    }
+
+    // 縦横比を保ったまま maxWidth x maxHeight に収まるように縮小する
+    static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+        var start = System.nanoTime();
+        var scaled = fit(image, maxWidth, maxHeight);
+        if (scaled.getWidth() < image.getWidth() || scaled.getHeight() < image.getHeight()) {
+            Metrics.SCALE.recordSince(start);
+        }
+        return scaled;
+    }
+
+    private static BufferedImage fit(BufferedImage image, int maxWidth, int maxHeight) {
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        if (scale >= 1.0) {
+            // 拡大はしない
+            return toCompatibleType(image);
+        }
+        return scaleTo(image, Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    // width x height ちょうどの大きさにする
+    // 縮小は半分ずつバイリニアで行い、最後に目的のサイズに合わせる
+    static BufferedImage scaleTo(BufferedImage image, int width, int height) {
+        var current = image;
+        var currentWidth = image.getWidth();
+        var currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            current = resize(current, currentWidth, currentHeight);
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        var type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+                : BufferedImage.TYPE_INT_ARGB;
+        var resized = new BufferedImage(width, height, type);
+        var g = resized.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return resized;
+    }
+
+    private static BufferedImage toCompatibleType(BufferedImage image) {
+        var type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) return image;
+        return resize(image, image.getWidth(), image.getHeight());
+    }
+}
@@ -0,0 +1,285 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+// 大きな画像を表示するコンポーネント
+// 表示中の範囲だけを現在の倍率に合った間引き率でタイルごとに読み込み、少数のタイルだけをキャッシュする
+class TiledImageView extends JComponent implements AutoCloseable {
+    private record TileKey(int subsampling, int column, int row) {
+    }
+
+    // 読み込み後のタイルの一辺
+    private static final int TILE_SIZE = 512;
+    private static final int MAX_CACHED_TILES = 48;
+    // 全体表示用の縮小画像の長辺
+    private static final int OVERVIEW_SIZE = 1024;
+    private static final double MAX_ZOOM = 8.0;
+
+    private final Path path;
+    private final int imageWidth;
+    private final int imageHeight;
+
+    // 表示上のピクセル / 元画像のピクセル
+    private double zoom = 1.0;
+    // 表示領域の左上に対応する元画像上の座標
+    private double originX = 0;
+    private double originY = 0;
+    // ウィンドウに合わせて表示しているか
+    private boolean fitted = true;
+
+    // 以下は EDT からのみ触る
+    private BufferedImage overview;
+    private final Map<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+    private final Set<TileKey> requested = new HashSet<>();
+
+    // いま表示に必要なタイル。これに含まれなくなった読み込み待ちのタイルは読み込まない
+    private volatile Set<TileKey> wanted = Set.of();
+    // ImageReader はスレッドセーフではないので読み込みは 1 スレッドで行う
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "tile-decoder");
+        t.setDaemon(true);
+        return t;
+    });
+    private ImageInputStream input;
+    private ImageReader reader;
+
+    TiledImageView(Path path, int imageWidth, int imageHeight) {
+        this.path = path;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        setOpaque(true);
+        setBackground(Color.BLACK);
+
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (fitted) {
+                    fitToWindow();
+                } else {
+                    clampOrigin();
+                }
+                repaint();
+            }
+        });
+
+        decoder.execute(this::loadOverview);
+    }
+
+    // 全体が表示されているか（拡大していないか）
+    boolean isFitted() {
+        return fitted;
+    }
+
+    void fitToWindow() {
+        fitted = true;
+        zoom = fitZoom();
+        clampOrigin();
+        repaint();
+    }
+
+    // 表示上の点 p を中心に拡大・縮小する
+    void zoomAt(Point p, double factor) {
+        var newZoom = Math.max(fitZoom(), Math.min(MAX_ZOOM, zoom * factor));
+        if (newZoom == zoom) return;
+
+        var sourceX = originX + p.x / zoom;
+        var sourceY = originY + p.y / zoom;
+        zoom = newZoom;
+        originX = sourceX - p.x / zoom;
+        originY = sourceY - p.y / zoom;
+        fitted = newZoom == fitZoom();
+        clampOrigin();
+        repaint();
+    }
+
+    // 表示上のピクセル数だけ移動する
+    void panBy(int dx, int dy) {
+        originX -= dx / zoom;
+        originY -= dy / zoom;
+        clampOrigin();
+        repaint();
+    }
+
+    private double fitZoom() {
+        if (getWidth() <= 0 || getHeight() <= 0) return zoom;
+        return Math.min((double) getWidth() / imageWidth, (double) getHeight() / imageHeight);
+    }
+
+    private void clampOrigin() {
+        var viewWidth = getWidth() / zoom;
+        var viewHeight = getHeight() / zoom;
+        // 画像が表示領域より小さい方向は中央に寄せる
+        originX = viewWidth >= imageWidth ? (imageWidth - viewWidth) / 2
+                : Math.max(0, Math.min(imageWidth - viewWidth, originX));
+        originY = viewHeight >= imageHeight ? (imageHeight - viewHeight) / 2
+                : Math.max(0, Math.min(imageHeight - viewHeight, originY));
+    }
+
+    // 倍率に合った間引き率（2 のべき乗）
+    private int subsampling() {
+        var s = 1;
+        while (s * 2 <= 1.0 / zoom) {
+            s *= 2;
+        }
+        return s;
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        var g = (Graphics2D) graphics;
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+        // 読み込み前のタイルの代わりに縮小画像を描いておく
+        if (overview != null) {
+            drawSource(g, overview, new Rectangle(0, 0, imageWidth, imageHeight));
+        }
+
+        var s = subsampling();
+        var sourceTile = TILE_SIZE * s;
+        var firstColumn = Math.max(0, (int) (originX / sourceTile));
+        var firstRow = Math.max(0, (int) (originY / sourceTile));
+        var lastColumn = Math.min((imageWidth - 1) / sourceTile, (int) ((originX + getWidth() / zoom) / sourceTile));
+        var lastRow = Math.min((imageHeight - 1) / sourceTile, (int) ((originY + getHeight() / zoom) / sourceTile));
+
+        var visible = new HashSet<TileKey>();
+        for (var row = firstRow; row <= lastRow; row++) {
+            for (var column = firstColumn; column <= lastColumn; column++) {
+                var key = new TileKey(s, column, row);
+                visible.add(key);
+                var tile = tiles.get(key);
+                if (tile != null) {
+                    drawSource(g, tile, tileRegion(key));
+                } else if (overview == null || s < overviewSubsampling()) {
+                    // 縮小画像で足りない倍率のときだけタイルを読み込む
+                    requestTile(key);
+                }
+            }
+        }
+        wanted = visible;
+    }
+
+    private int overviewSubsampling() {
+        return Math.max(1, (int) Math.ceil((double) Math.max(imageWidth, imageHeight) / OVERVIEW_SIZE));
+    }
+
+    // 元画像上の region に対応する画像 image を表示上の位置に描く
+    private void drawSource(Graphics2D g, BufferedImage image, Rectangle region) {
+        var x1 = (int) Math.floor((region.x - originX) * zoom);
+        var y1 = (int) Math.floor((region.y - originY) * zoom);
+        var x2 = (int) Math.ceil((region.x + region.width - originX) * zoom);
+        var y2 = (int) Math.ceil((region.y + region.height - originY) * zoom);
+        g.drawImage(image, x1, y1, x2, y2, 0, 0, image.getWidth(), image.getHeight(), null);
+    }
+
+    private Rectangle tileRegion(TileKey key) {
+        var sourceTile = TILE_SIZE * key.subsampling();
+        var x = key.column() * sourceTile;
+        var y = key.row() * sourceTile;
+        return new Rectangle(x, y, Math.min(sourceTile, imageWidth - x), Math.min(sourceTile, imageHeight - y));
+    }
+
+    private void requestTile(TileKey key) {
+        if (!requested.add(key)) return;
+
+        decoder.execute(() -> {
+            if (!wanted.contains(key)) {
+                // スクロールや拡大縮小で不要になった
+                SwingUtilities.invokeLater(() -> requested.remove(key));
+                return;
+            }
+            BufferedImage tile = null;
+            try {
+                tile = readRegion(tileRegion(key), key.subsampling());
+            } catch (IOException e) {
+                // 読み込めなかったタイルは縮小画像のまま表示する
+            }
+            var loaded = tile;
+            SwingUtilities.invokeLater(() -> {
+                requested.remove(key);
+                if (loaded != null) {
+                    tiles.put(key, loaded);
+                    repaint();
+                }
+            });
+        });
+    }
+
+    private void loadOverview() {
+        try {
+            var image = readRegion(new Rectangle(0, 0, imageWidth, imageHeight), overviewSubsampling());
+            SwingUtilities.invokeLater(() -> {
+                overview = image;
+                repaint();
+            });
+        } catch (IOException e) {
+            // 縮小画像が無くてもタイルは表示できる
+        }
+    }
+
+    // decoder スレッドから呼ぶ
+    private BufferedImage readRegion(Rectangle region, int subsampling) throws IOException {
+        if (reader == null) {
+            input = ImageIO.createImageInputStream(path.toFile());
+            if (input == null) throw new IOException("画像を開けません: " + path);
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) throw new IOException("対応していない形式です: " + path);
+            reader = readers.next();
+            reader.setInput(input, true, true);
+        }
+        var param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        var start = System.nanoTime();
+        var image = reader.read(0, param);
+        Metrics.TILE_DECODE.recordSince(start);
+        return image;
+    }
+
+    @Override
+    public void close() {
+        wanted = Set.of();
+        decoder.execute(() -> {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                }
+            }
+        });
+        decoder.shutdown();
+        tiles.clear();
+        overview = null;
+    }
+}
@@ -0,0 +1,220 @@
+package dev.webarata3.imagehelper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ビューアーで表示する画像を画面に収まる大きさでデコードし、前後の画像を先読みしておく
+// デコード済みの画像はバイト数の上限までキャッシュし、最後に使われたのが古いものから捨てる
+// ビューアーのウィンドウごとに Session を作り、どのウィンドウも使わなくなった画像の読み込みだけを取り消す
+class ViewerFrameLoader {
+    // image が null のときはタイル表示する大きな画像
+    record Frame(Path path, BufferedImage image, int width, int height) {
+        boolean isTiled() {
+            return image == null;
+        }
+    }
+
+    private final Dimension maxFrameSize;
+    private final long maxBytes;
+    private final ThreadPoolExecutor executor;
+
+    // 以下は this で同期する
+    private final LinkedHashMap<Path, Frame> frames = new LinkedHashMap<>(32, 0.75f, true);
+    private final Map<Path, CompletableFuture<Frame>> inFlight = new HashMap<>();
+    private long totalBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    private final Set<Session> sessions = new HashSet<>();
+
+    // いずれかのウィンドウで表示中か先読み対象のパス。これに含まれなくなった読み込み待ちの画像は読み込まない
+    private volatile Set<Path> wanted = Set.of();
+
+    // 1 つのビューアーのウィンドウで表示中と先読み対象のパス
+    final class Session {
+        // ViewerFrameLoader で同期する
+        private Set<Path> paths = Set.of();
+
+        // path の画像を読み込み、prefetch の画像を先読みする（近いものから順に並べておく）
+        // このウィンドウの以前の読み込み待ちは、他のウィンドウが使っていなければ取り消す
+        // 結果はバックグラウンドのスレッドで完了する
+        CompletableFuture<Frame> load(Path path, List<Path> prefetch) {
+            return ViewerFrameLoader.this.load(this, path, prefetch);
+        }
+
+        // ウィンドウを閉じたときに呼ぶ
+        void close() {
+            ViewerFrameLoader.this.close(this);
+        }
+    }
+
+    // maxFrameSize: デコード後の最大の大きさ（画面の大きさ）
+    ViewerFrameLoader(Dimension maxFrameSize, long maxBytes) {
+        this.maxFrameSize = new Dimension(maxFrameSize);
+        this.maxBytes = maxBytes;
+
+        var threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        var threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    var t = new Thread(r, "viewer-prefetch-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    Session openSession() {
+        return new Session();
+    }
+
+    private synchronized CompletableFuture<Frame> load(Session session, Path path, List<Path> prefetch) {
+        var keep = new HashSet<Path>();
+        keep.add(path);
+        keep.addAll(prefetch);
+        session.paths = keep;
+        sessions.add(session);
+        updateWanted();
+
+        var result = request(path, true);
+        for (var p : prefetch) {
+            request(p, false);
+        }
+        return result;
+    }
+
+    private synchronized void close(Session session) {
+        sessions.remove(session);
+        updateWanted();
+    }
+
+    // どのウィンドウも使わなくなった読み込み待ちを取り消す
+    private void updateWanted() {
+        var all = new HashSet<Path>();
+        for (var session : sessions) {
+            all.addAll(session.paths);
+        }
+        wanted = all;
+
+        var it = inFlight.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            if (all.contains(entry.getKey())) continue;
+
+            entry.getValue().cancel(false);
+            it.remove();
+        }
+    }
+
+    // 上書き・削除された画像を捨てる
+    synchronized void remove(Path path) {
+        var old = frames.remove(path);
+        if (old != null) {
+            totalBytes -= bytes(old);
+        }
+        var future = inFlight.remove(path);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private CompletableFuture<Frame> request(Path path, boolean countStats) {
+        var cached = frames.get(path);
+        if (cached != null) {
+            if (countStats) hitCount++;
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (countStats) missCount++;
+
+        var future = inFlight.get(path);
+        if (future != null) return future;
+
+        var created = new CompletableFuture<Frame>();
+        inFlight.put(path, created);
+        executor.execute(() -> {
+            // 取り消されたか、もう近くの画像ではなくなった
+            if (created.isDone() || !wanted.contains(path)) {
+                created.cancel(false);
+                finished(path, created, null);
+                return;
+            }
+            try {
+                var frame = decode(path);
+                finished(path, created, frame);
+                created.complete(frame);
+            } catch (IOException | RuntimeException e) {
+                finished(path, created, null);
+                created.completeExceptionally(e);
+            }
+        });
+        return created;
+    }
+
+    private synchronized void finished(Path path, CompletableFuture<Frame> future, Frame frame) {
+        if (!inFlight.remove(path, future)) return;
+        if (frame == null) return;
+
+        var old = frames.put(path, frame);
+        if (old != null) {
+            totalBytes -= bytes(old);
+        }
+        totalBytes += bytes(frame);
+        evict();
+    }
+
+    private void evict() {
+        var it = frames.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            var frame = it.next().getValue();
+            // 表示中と先読みした画像は残す
+            if (wanted.contains(frame.path())) continue;
+
+            it.remove();
+            totalBytes -= bytes(frame);
+        }
+    }
+
+    private Frame decode(Path path) throws IOException {
+        var size = Thumbnails.readSize(path);
+        if (size == null) throw new IOException("対応していない形式です: " + path.getFileName());
+
+        if ((long) size.width * size.height > ImageViewerWindow.LARGE_IMAGE_PIXELS) {
+            // 大きな画像は表示範囲だけをタイルで読み込むのでここではデコードしない
+            return new Frame(path, null, size.width, size.height);
+        }
+        // 画面より小さい画像は拡大しない
+        var image = Thumbnails.decodeForViewer(path, Math.min(size.width, maxFrameSize.width),
+                Math.min(size.height, maxFrameSize.height));
+        if (image == null) throw new IOException("画像を読み込めません: " + path.getFileName());
+        return new Frame(path, image, size.width, size.height);
+    }
+
+    private static long bytes(Frame frame) {
+        if (frame.isTiled()) return 0;
+        return (long) frame.image().getWidth() * frame.image().getHeight() * 4;
+    }
+
+    int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    synchronized long hitCount() {
+        return hitCount;
+    }
+
+    synchronized long missCount() {
+        return missCount;
+    }
+}